@@ -0,0 +1,469 @@
+package nachos.bench;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nachos.machine.Simulation;
+
+/**
+ * Runs a sweep of Nachos configurations and tabulates the results, so that a
+ * study like the page-size table in <tt>Design.txt</tt> is a single command:
+ *
+ * <p>
+ * <pre>java nachos.bench.Bench [-fork] [-j n] [-csv file] [-md file] conf/bench/PageSize.bench</pre>
+ *
+ * <p>
+ * A bench file names a base configuration and lists the keys to vary, with
+ * the alternatives separated by <tt>|</tt>. Every combination is run, the
+ * first key varying slowest:
+ *
+ * <p>
+ * <pre>
+ * bench.base = conf/PA3/Performance_1024.conf
+ * bench.memory = 1048576
+ * Processor.pageSize = 256 | 1024 | 4096
+ * ThreadedKernel.scheduler = nachos.threads.StaticPriorityScheduler
+ * Kernel.shellPrograms = 10:init_%s.coff,sort_%s.coff
+ * </pre>
+ *
+ * <p>
+ * Any configuration key can be swept, and any key can be fixed for the whole
+ * sweep. In values, <tt>%s</tt> is replaced by the page size as the test
+ * programs are named (<tt>1024</tt>, <tt>32KB</tt>). If <tt>bench.memory</tt>
+ * is set and <tt>Processor.numPhysPages</tt> is not given, the number of
+ * physical pages is chosen to keep that many bytes of memory. Both need
+ * <tt>Processor.pageSize</tt>; a configuration without a processor can still
+ * be swept, and shows <tt>-</tt> for the physical frames and <tt>%used</tt>.
+ *
+ * <p>
+ * For each run the table has the swept values, then page faults, the most
+ * processes running at once, the most frames reserved and mapped, the number
+ * of physical frames, the fraction of them mapped at peak, host wall time and
+ * user instructions per host second. The markdown table goes to standard
+ * output unless <tt>-md</tt> names a file; <tt>-csv</tt> also writes CSV.
+ *
+ * <p>
+ * Each run is a <tt>Simulation</tt> in this JVM, so only the first pays for
+ * starting the JVM. The simulator's classes are still loaded and compiled
+ * again for every run, so this saves start-up time only, not JIT warm-up.
+ * <tt>-fork</tt> runs each in a JVM of its own instead.
+ * Runs are spread over <tt>-j</tt> host threads, one per host processor by
+ * default. A simulation only depends on its configuration and its random
+ * seed, which is 0 unless the bench file sets <tt>bench.seed</tt> (which can
+ * be swept like any other key), so the results do not depend on how many
+ * run at once. Runs share a directory, so when there is more than one, the
+ * files a run writes (<tt>statistics.logFile</tt>,
+ * <tt>statistics.eventLog</tt>, <tt>statistics.metricsFile</tt> and
+ * <tt>Kernel.checkpointFile</tt>) get the run's row in the table added to
+ * their names: <tt>DPLog.txt</tt> becomes <tt>DPLog.0.txt</tt>,
+ * <tt>DPLog.1.txt</tt> and so on.
+ */
+public class Bench {
+    public static void main(String[] args) throws IOException {
+        String csvFile = null, mdFile = null, benchFile = null;
+        boolean fork = false;
+        int jobs = Runtime.getRuntime().availableProcessors();
+
+        for (int i=0; i<args.length; i++) {
+            if (args[i].equals("-fork"))
+                fork = true;
+            else if (args[i].equals("-j") && i+1 < args.length)
+                jobs = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-csv") && i+1 < args.length)
+                csvFile = args[++i];
+            else if (args[i].equals("-md") && i+1 < args.length)
+                mdFile = args[++i];
+            else
+                benchFile = args[i];
+        }
+
+        if (benchFile == null) {
+            System.err.println("usage: java nachos.bench.Bench [-fork] [-j n] " +
+                               "[-csv file] [-md file] benchfile");
+            System.exit(1);
+        }
+
+        Bench bench = new Bench(benchFile);
+        bench.fork = fork;
+        bench.jobs = jobs;
+        bench.run();
+
+        if (csvFile != null) {
+            PrintWriter out = new PrintWriter(new FileWriter(csvFile));
+            bench.writeCSV(out);
+            out.close();
+        }
+
+        if (mdFile != null) {
+            PrintWriter out = new PrintWriter(new FileWriter(mdFile));
+            bench.writeMarkdown(out);
+            out.close();
+        }
+        else {
+            PrintWriter out = new PrintWriter(System.out);
+            bench.writeMarkdown(out);
+            out.flush();
+        }
+    }
+
+    /**
+     * Read a bench file.
+     *
+     * @param	fileName	the bench file.
+     */
+    public Bench(String fileName) throws IOException {
+        LinkedHashMap settings = readSettings(fileName, true);
+
+        base = readSettings((String) settings.remove("bench.base"), false);
+
+        String memory = (String) settings.remove("bench.memory");
+        if (memory != null)
+            memoryBytes = Long.parseLong(memory);
+
+        //split each remaining key into its alternatives
+        for (Iterator i=settings.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry e = (Map.Entry) i.next();
+            String[] values = ((String) e.getValue()).split("\\|");
+            for (int j=0; j<values.length; j++)
+                values[j] = values[j].trim();
+
+            matrix.put(e.getKey(), values);
+            if (values.length > 1)
+                swept.add(e.getKey());
+        }
+    }
+
+    /**
+     * Run every combination in the matrix, <tt>jobs</tt> at a time. The
+     * results are kept in matrix order whatever order the runs finish in.
+     */
+    public void run() throws IOException {
+        final ArrayList confs = new ArrayList();
+
+        String[] keys = (String[]) matrix.keySet().toArray(new String[0]);
+        int[] choice = new int[keys.length];
+
+        while (true) {
+            LinkedHashMap conf = new LinkedHashMap(base);
+            for (int i=0; i<keys.length; i++)
+                conf.put(keys[i], ((String[]) matrix.get(keys[i]))[choice[i]]);
+
+            confs.add(fill(conf));
+
+            //advance the last key fastest
+            int i = keys.length - 1;
+            while (i >= 0 && ++choice[i] == ((String[]) matrix.get(keys[i])).length)
+                choice[i--] = 0;
+            if (i < 0)
+                break;
+        }
+
+        if (confs.size() > 1) {
+            for (int i=0; i<confs.size(); i++)
+                separateOutputs((LinkedHashMap) confs.get(i), i);
+        }
+
+        if (jobs <= 1) {
+            for (int i=0; i<confs.size(); i++)
+                results.add(runOne((LinkedHashMap) confs.get(i)));
+            return;
+        }
+
+        //simulations share nothing, so they can run on separate host threads
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        ArrayList futures = new ArrayList();
+        for (int i=0; i<confs.size(); i++) {
+            final LinkedHashMap conf = (LinkedHashMap) confs.get(i);
+            futures.add(pool.submit(new Callable() {
+                public Object call() throws IOException {
+                    return runOne(conf);
+                }
+            }));
+        }
+        pool.shutdown();
+
+        try {
+            for (int i=0; i<futures.size(); i++)
+                results.add(((Future) futures.get(i)).get());
+        }
+        catch (InterruptedException e) {
+            throw new IOException(e.toString());
+        }
+        catch (ExecutionException e) {
+            throw new IOException(e.getCause().toString());
+        }
+    }
+
+    //substitute the page size name and pick the number of frames
+    private LinkedHashMap fill(LinkedHashMap conf) throws IOException {
+        String size = (String) conf.get("Processor.pageSize");
+        if (size == null) {
+            //a configuration without a processor has nothing to scale
+            for (Iterator i=conf.values().iterator(); i.hasNext(); ) {
+                if (((String) i.next()).indexOf("%s") >= 0)
+                    throw new IOException("%s needs Processor.pageSize");
+            }
+            if (memoryBytes > 0)
+                throw new IOException("bench.memory needs Processor.pageSize");
+            return conf;
+        }
+
+        int pageSize = Integer.parseInt(size);
+
+        String suffix;
+        if (pageSize >= 1024*32 && pageSize % 1024 == 0)
+            suffix = (pageSize / 1024) + "KB";
+        else
+            suffix = "" + pageSize;
+
+        for (Iterator i=conf.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry e = (Map.Entry) i.next();
+            e.setValue(((String) e.getValue()).replace("%s", suffix));
+        }
+
+        if (memoryBytes > 0 && !matrix.containsKey("Processor.numPhysPages"))
+            conf.put("Processor.numPhysPages", "" + (memoryBytes / pageSize));
+
+        return conf;
+    }
+
+    //give a run its own copy of each file it writes
+    private static void separateOutputs(LinkedHashMap conf, int run) {
+        for (int i=0; i<outputKeys.length; i++) {
+            String name = (String) conf.get(outputKeys[i]);
+            if (name == null)
+                continue;
+
+            //the index goes before the extension, if there is one
+            int dot = name.lastIndexOf('.');
+            if (dot <= name.lastIndexOf(File.separatorChar))
+                dot = name.length();
+            conf.put(outputKeys[i], name.substring(0, dot) + "." + run +
+                     name.substring(dot));
+        }
+    }
+
+    /**
+     * Run one configuration and collect its report.
+     */
+    private Result runOne(LinkedHashMap conf) throws IOException {
+        File confFile = File.createTempFile("bench", ".conf");
+        confFile.deleteOnExit();
+
+        PrintWriter out = new PrintWriter(new FileWriter(confFile));
+        for (Iterator i=conf.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry e = (Map.Entry) i.next();
+            if (!((String) e.getKey()).startsWith("bench."))
+                out.println(e.getKey() + " = " + e.getValue());
+        }
+        out.close();
+
+        String seed = (String) conf.get("bench.seed");
+        String[] args = (seed == null) ?
+            new String[] { "-[]", confFile.getPath() } :
+            new String[] { "-[]", confFile.getPath(), "-s", seed };
+
+        Result result = new Result(conf);
+
+        long start = System.nanoTime();
+        if (fork) {
+            runForked(args, result);
+        }
+        else {
+            Simulation sim = new Simulation(args);
+            sim.run();
+            String[] lines = sim.getOutput().split("\n");
+            for (int i=0; i<lines.length; i++)
+                result.parse(lines[i]);
+        }
+        result.wallMillis = (System.nanoTime() - start) / 1000000;
+
+        confFile.delete();
+
+        System.err.println("bench: " + result.label(swept) + " " +
+                           result.wallMillis + "ms");
+        return result;
+    }
+
+    //run one configuration in a JVM of its own
+    private void runForked(String[] args, Result result) throws IOException {
+        ArrayList command = new ArrayList();
+        command.add(System.getProperty("java.home") + File.separator + "bin" +
+                    File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        //newer JVMs refuse to install the Nachos security manager otherwise
+        if (!System.getProperty("java.specification.version").startsWith("1."))
+            command.add("-Djava.security.manager=allow");
+        command.add("nachos.machine.Machine");
+        for (int i=0; i<args.length; i++)
+            command.add(args[i]);
+
+        Process p = new ProcessBuilder(command).redirectErrorStream(true).start();
+        BufferedReader in =
+            new BufferedReader(new InputStreamReader(p.getInputStream()));
+        String line;
+        while ((line = in.readLine()) != null)
+            result.parse(line);
+        try {
+            p.waitFor();
+        }
+        catch (InterruptedException e) {
+        }
+    }
+
+    private static LinkedHashMap readSettings(String fileName, boolean bench)
+        throws IOException {
+        LinkedHashMap settings = new LinkedHashMap();
+        if (fileName == null)
+            return settings;
+
+        BufferedReader in = new BufferedReader(new FileReader(fileName));
+        String line;
+        while ((line = in.readLine()) != null) {
+            int hash = line.indexOf('#');
+            if (hash >= 0)
+                line = line.substring(0, hash);
+
+            int eq = line.indexOf('=');
+            if (eq < 0)
+                continue;
+
+            String value = line.substring(eq+1).trim();
+            //a nachos.conf value ends at the first space
+            if (!bench && value.indexOf(' ') >= 0)
+                value = value.substring(0, value.indexOf(' '));
+
+            settings.put(line.substring(0, eq).trim(), value);
+        }
+        in.close();
+
+        return settings;
+    }
+
+    public void writeCSV(PrintWriter out) {
+        String header = "";
+        for (int i=0; i<swept.size(); i++)
+            header += swept.get(i) + ",";
+        out.println(header + Result.csvHeader);
+
+        for (int i=0; i<results.size(); i++) {
+            Result r = (Result) results.get(i);
+            out.println(r.label(swept).replace(' ', ',') +
+                        (swept.isEmpty() ? "" : ",") + r.toCSV());
+        }
+    }
+
+    public void writeMarkdown(PrintWriter out) {
+        String header = "|", rule = "|";
+        for (int i=0; i<swept.size(); i++) {
+            String key = (String) swept.get(i);
+            header += " " + key.substring(key.lastIndexOf('.') + 1) + " |";
+            rule += "---|";
+        }
+        String[] columns = Result.csvHeader.split(",");
+        for (int i=0; i<columns.length; i++) {
+            header += " " + columns[i] + " |";
+            rule += "---:|";
+        }
+        out.println(header);
+        out.println(rule);
+
+        for (int i=0; i<results.size(); i++) {
+            Result r = (Result) results.get(i);
+            String row = "|";
+            for (int j=0; j<swept.size(); j++)
+                row += " " + r.conf.get(swept.get(j)) + " |";
+            String[] values = r.toCSV().split(",");
+            for (int j=0; j<values.length; j++)
+                row += " " + values[j] + " |";
+            out.println(row);
+        }
+    }
+
+    /**
+     * The report of one run, scraped from what the kernel and the machine
+     * print.
+     */
+    static class Result {
+        Result(LinkedHashMap conf) {
+            this.conf = conf;
+            String frames = (String) conf.get("Processor.numPhysPages");
+            if (frames != null)
+                physFrames = Integer.parseInt(frames);
+        }
+
+        void parse(String line) {
+            if (line.startsWith("Max running processes:"))
+                maxProc = lastNumber(line);
+            else if (line.startsWith("Max frames reserved:"))
+                maxReserved = lastNumber(line);
+            else if (line.startsWith("Max frames mapped:"))
+                maxMapped = lastNumber(line);
+            else if (line.startsWith("Paging: page faults"))
+                pageFaults = Long.parseLong(line.substring(
+                    line.indexOf("faults") + 7, line.indexOf(',')).trim());
+            else if (line.startsWith("Ticks: total"))
+                userTicks = lastNumber(line);
+        }
+
+        String label(ArrayList swept) {
+            String s = "";
+            for (int i=0; i<swept.size(); i++)
+                s += (i > 0 ? " " : "") + conf.get(swept.get(i));
+            return s;
+        }
+
+        String toCSV() {
+            //without a memory size there is no fraction of it to report
+            String frames = "-", used = "-";
+            if (physFrames >= 0) {
+                frames = "" + physFrames;
+                used = String.format("%.1f%%", (physFrames == 0) ? 0 :
+                                     100.0 * maxMapped / physFrames);
+            }
+            long rate = (wallMillis == 0) ? 0 : userTicks * 1000 / wallMillis;
+            return pageFaults + "," + maxProc + "," + maxReserved + "," +
+                maxMapped + "," + frames + "," + used + "," + wallMillis +
+                "," + rate;
+        }
+
+        private static long lastNumber(String line) {
+            String[] words = line.trim().split("[ ,]+");
+            return Long.parseLong(words[words.length-1]);
+        }
+
+        static final String csvHeader =
+            "pgFault,maxProc,maxResv,maxMap,ttlPhyFrame,%used,wallMs,instr/s";
+
+        LinkedHashMap conf;
+        long pageFaults, maxProc, maxReserved, maxMapped, userTicks;
+        long physFrames = -1;
+        long wallMillis;
+    }
+
+    /**
+     * The configuration keys that name a file a run writes.
+     */
+    private static final String[] outputKeys = {
+        "statistics.logFile", "statistics.eventLog", "statistics.metricsFile",
+        "Kernel.checkpointFile"
+    };
+
+    private boolean fork = false;
+    private int jobs = 1;
+    private LinkedHashMap base;
+    private long memoryBytes = 0;
+    private LinkedHashMap matrix = new LinkedHashMap();
+    private ArrayList swept = new ArrayList();
+    private ArrayList results = new ArrayList();
+}
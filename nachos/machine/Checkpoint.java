@@ -0,0 +1,397 @@
+package nachos.machine;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A binary snapshot of a running simulation, from which a later run can
+ * resume. <tt>saveMachine()</tt> writes the state of the hardware: the
+ * statistics, which include the simulated time, the random number generator,
+ * the pending interrupts, the registers and TLB of every processor, and main
+ * memory. The kernel then writes its own state after it with the
+ * <tt>write<i>*</i>()</tt> methods, and reads it back in the same order with
+ * the <tt>read<i>*</i>()</tt> methods after <tt>restoreMachine()</tt>.
+ *
+ * <p>
+ * Values go through a direct buffer. Main memory and other large arrays are
+ * written to and read from the <tt>FileChannel</tt> in one transfer each,
+ * without passing through the buffer.
+ *
+ * <p>
+ * Interrupt handlers cannot be saved. Instead, each interrupt pending when a
+ * checkpoint is restored is moved to the time of the saved interrupt of the
+ * same type, which works because the devices schedule the same interrupts
+ * every run.
+ */
+public final class Checkpoint {
+    /**
+     * Create a checkpoint file, replacing any file of the same name.
+     *
+     * @param	fileName	the name of the file.
+     * @return	the checkpoint, ready for writing, or <tt>null</tt> if the
+     *		file cannot be created.
+     */
+    public static Checkpoint create(String fileName) {
+	try {
+	    RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+	    file.setLength(0);
+	    Checkpoint c = new Checkpoint(file.getChannel(), true);
+	    c.writeInt(magic);
+	    c.writeInt(version);
+	    return c;
+	}
+	catch (IOException e) {
+	    System.out.println("checkpoint: " + e);
+	    return null;
+	}
+    }
+
+    /**
+     * Open a checkpoint file made by <tt>create()</tt>.
+     *
+     * @param	fileName	the name of the file.
+     * @return	the checkpoint, ready for reading.
+     */
+    public static Checkpoint open(String fileName) {
+	Checkpoint c = null;
+	try {
+	    RandomAccessFile file = new RandomAccessFile(fileName, "r");
+	    c = new Checkpoint(file.getChannel(), false);
+	}
+	catch (IOException e) {
+	    Lib.assertNotReached("checkpoint: " + e);
+	}
+
+	Lib.assertTrue(c.readInt() == magic, fileName + " is not a checkpoint");
+	Lib.assertTrue(c.readInt() == version,
+		       fileName + " is from another version of Nachos");
+	return c;
+    }
+
+    private Checkpoint(FileChannel channel, boolean writing) {
+	this.channel = channel;
+	this.writing = writing;
+
+	buffer = ByteBuffer.allocateDirect(bufferSize);
+	if (!writing)
+	    buffer.flip();
+    }
+
+    /**
+     * Called by <tt>Machine</tt> to give access to the statistics.
+     *
+     * @param	stats	the machine's statistics.
+     */
+    static void setStats(Stats stats) {
+	Checkpoint.stats = stats;
+    }
+
+    /**
+     * Write the state of the machine. Every processor's pipeline must be
+     * empty, which it is whenever the kernel is running.
+     */
+    public void saveMachine() {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	writeInt(Machine.numProcessors());
+	writeInt(Processor.pageSize);
+
+	writeLong(stats.totalTicks);
+	writeLong(stats.kernelTicks);
+	writeLong(stats.userTicks);
+	writeInt(stats.numDiskReads);
+	writeInt(stats.numDiskWrites);
+	writeInt(stats.numConsoleReads);
+	writeInt(stats.numConsoleWrites);
+	writeInt(stats.numPageFaults);
+	writeInt(stats.numTLBMisses);
+	writeInt(stats.numPacketsSent);
+	writeInt(stats.numPacketsReceived);
+	writeInt(stats.numIPIs);
+
+	writeLong(Lib.getRandomState());
+
+	Machine.interrupt().savePending(this);
+
+	Processor boot = Machine.processor(0);
+	writeBoolean(boot != null);
+	if (boot == null)
+	    return;
+
+	writeInt(boot.getNumPhysPages());
+	for (int i=0; i<Machine.numProcessors(); i++) {
+	    Processor processor = Machine.processor(i);
+
+	    for (int j=0; j<Processor.numUserRegisters; j++)
+		writeInt(processor.readRegister(j));
+
+	    if (processor.hasTLB()) {
+		for (int j=0; j<processor.getTLBSize(); j++)
+		    writeEntry(processor.readTLBEntry(j));
+	    }
+	}
+
+	writeBytes(boot.getMemory());
+    }
+
+    /**
+     * Restore the state of the machine from a checkpoint made with the same
+     * configuration. Interrupts must be disabled.
+     */
+    public void restoreMachine() {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	Lib.assertTrue(readInt() == Machine.numProcessors(),
+		       "checkpoint has a different number of processors");
+	Lib.assertTrue(readInt() == Processor.pageSize,
+		       "checkpoint has a different page size");
+
+	long totalTicks = readLong();
+	long delta = totalTicks - stats.totalTicks;
+	stats.totalTicks = totalTicks;
+	stats.kernelTicks = readLong();
+	stats.userTicks = readLong();
+	stats.numDiskReads = readInt();
+	stats.numDiskWrites = readInt();
+	stats.numConsoleReads = readInt();
+	stats.numConsoleWrites = readInt();
+	stats.numPageFaults = readInt();
+	stats.numTLBMisses = readInt();
+	stats.numPacketsSent = readInt();
+	stats.numPacketsReceived = readInt();
+	stats.numIPIs = readInt();
+
+	Lib.setRandomState(readLong());
+
+	Machine.interrupt().restorePending(this, delta);
+
+	boolean hasProcessor = readBoolean();
+	Processor boot = Machine.processor(0);
+	Lib.assertTrue(hasProcessor == (boot != null),
+		       "checkpoint has a different machine");
+	if (boot == null)
+	    return;
+
+	Lib.assertTrue(readInt() == boot.getNumPhysPages(),
+		       "checkpoint has a different amount of memory");
+	for (int i=0; i<Machine.numProcessors(); i++) {
+	    Processor processor = Machine.processor(i);
+
+	    for (int j=0; j<Processor.numUserRegisters; j++)
+		processor.writeRegister(j, readInt());
+
+	    if (processor.hasTLB()) {
+		for (int j=0; j<processor.getTLBSize(); j++)
+		    processor.writeTLBEntry(j, readEntry());
+	    }
+	}
+
+	readBytes(boot.getMemory());
+    }
+
+    /**
+     * Write a translation entry.
+     *
+     * @param	entry	the entry to write, or <tt>null</tt>.
+     */
+    public void writeEntry(TranslationEntry entry) {
+	writeBoolean(entry != null);
+	if (entry == null)
+	    return;
+
+	writeInt(entry.vpn);
+	writeInt(entry.ppn);
+	writeInt((entry.valid ? 1 : 0) | (entry.readOnly ? 2 : 0) |
+		 (entry.used ? 4 : 0) | (entry.dirty ? 8 : 0));
+    }
+
+    /**
+     * Read a translation entry written by <tt>writeEntry()</tt>.
+     *
+     * @return	the entry, or <tt>null</tt>.
+     */
+    public TranslationEntry readEntry() {
+	if (!readBoolean())
+	    return null;
+
+	int vpn = readInt();
+	int ppn = readInt();
+	int flags = readInt();
+	return new TranslationEntry(vpn, ppn, (flags & 1) != 0,
+				    (flags & 2) != 0, (flags & 4) != 0,
+				    (flags & 8) != 0);
+    }
+
+    public void writeInt(int value) {
+	reserve(4);
+	buffer.putInt(value);
+    }
+
+    public void writeLong(long value) {
+	reserve(8);
+	buffer.putLong(value);
+    }
+
+    public void writeBoolean(boolean value) {
+	writeInt(value ? 1 : 0);
+    }
+
+    /**
+     * Write a string, or <tt>null</tt>.
+     *
+     * @param	s	the string.
+     */
+    public void writeString(String s) {
+	if (s == null) {
+	    writeInt(-1);
+	    return;
+	}
+
+	byte[] bytes = s.getBytes();
+	writeInt(bytes.length);
+	writeBytes(bytes);
+    }
+
+    /**
+     * Write an array of bytes. Its length is not written.
+     *
+     * @param	bytes	the bytes to write.
+     */
+    public void writeBytes(byte[] bytes) {
+	Lib.assertTrue(writing);
+
+	if (bytes.length <= buffer.remaining()) {
+	    buffer.put(bytes);
+	    return;
+	}
+
+	flush();
+	ByteBuffer src = ByteBuffer.wrap(bytes);
+	try {
+	    while (src.hasRemaining())
+		channel.write(src);
+	}
+	catch (IOException e) {
+	    System.out.println("checkpoint: " + e);
+	}
+    }
+
+    public int readInt() {
+	fill(4);
+	return buffer.getInt();
+    }
+
+    public long readLong() {
+	fill(8);
+	return buffer.getLong();
+    }
+
+    public boolean readBoolean() {
+	return readInt() != 0;
+    }
+
+    /**
+     * Read a string written by <tt>writeString()</tt>.
+     *
+     * @return	the string, or <tt>null</tt>.
+     */
+    public String readString() {
+	int length = readInt();
+	if (length < 0)
+	    return null;
+
+	byte[] bytes = new byte[length];
+	readBytes(bytes);
+	return new String(bytes);
+    }
+
+    /**
+     * Fill an array with the next bytes of the checkpoint.
+     *
+     * @param	bytes	the array to fill.
+     */
+    public void readBytes(byte[] bytes) {
+	Lib.assertTrue(!writing);
+
+	int n = Math.min(bytes.length, buffer.remaining());
+	buffer.get(bytes, 0, n);
+	if (n == bytes.length)
+	    return;
+
+	ByteBuffer dst = ByteBuffer.wrap(bytes, n, bytes.length - n);
+	try {
+	    while (dst.hasRemaining()) {
+		if (channel.read(dst) < 0)
+		    Lib.assertNotReached("checkpoint is truncated");
+	    }
+	}
+	catch (IOException e) {
+	    Lib.assertNotReached("checkpoint: " + e);
+	}
+    }
+
+    /**
+     * Write out anything buffered and close the file.
+     */
+    public void close() {
+	if (writing)
+	    flush();
+
+	try {
+	    channel.close();
+	}
+	catch (IOException e) {
+	}
+    }
+
+    private void reserve(int n) {
+	Lib.assertTrue(writing);
+
+	if (buffer.remaining() < n)
+	    flush();
+    }
+
+    private void flush() {
+	buffer.flip();
+	try {
+	    while (buffer.hasRemaining())
+		channel.write(buffer);
+	}
+	catch (IOException e) {
+	    System.out.println("checkpoint: " + e);
+	}
+	buffer.clear();
+    }
+
+    //make sure the buffer holds at least n bytes
+    private void fill(int n) {
+	Lib.assertTrue(!writing);
+
+	if (buffer.remaining() >= n)
+	    return;
+
+	buffer.compact();
+	try {
+	    while (buffer.position() < n) {
+		if (channel.read(buffer) < 0)
+		    Lib.assertNotReached("checkpoint is truncated");
+	    }
+	}
+	catch (IOException e) {
+	    Lib.assertNotReached("checkpoint: " + e);
+	}
+	buffer.flip();
+    }
+
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private boolean writing;
+
+    private static Stats stats = null;
+
+    private static final int bufferSize = 64*1024;
+    private static final int magic = 0x4e434b50;
+    private static final int version = 1;
+}
@@ -0,0 +1,189 @@
+package nachos.machine;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/**
+ * A binary, append-only log of kernel events. Each event is a fixed-size
+ * record of the simulated time, an event type and three integer arguments,
+ * collected in a direct buffer and written to the file through a
+ * <tt>FileChannel</tt> whenever the buffer fills, and when Nachos terminates.
+ * Logging an event does no string formatting and no console I/O, so it does
+ * not disturb the timings being measured.
+ *
+ * <p>
+ * Strings such as program names are written once, as <tt>eventName</tt>
+ * records, and referred to by number afterwards. <tt>EventLogDecoder</tt>
+ * turns the file into CSV.
+ *
+ * <p>
+ * The log is enabled by naming a file with the <tt>statistics.eventLog</tt>
+ * key. Callers should check <tt>enabled()</tt> and fall back to printing the
+ * event themselves if it is not.
+ */
+public final class EventLog {
+    /**
+     * Prevent instantiation.
+     */
+    private EventLog() {
+    }
+
+    /**
+     * Test if events are being logged.
+     *
+     * @return	<tt>true</tt> if <tt>statistics.eventLog</tt> names a file.
+     */
+    public static boolean enabled() {
+	if (!initialized)
+	    initialize();
+
+	return channel != null;
+    }
+
+    /**
+     * Return the number that stands for the specified string in this log,
+     * writing an <tt>eventName</tt> record the first time it is seen.
+     *
+     * @param	s	the string.
+     * @return	the number of the string.
+     */
+    public static int name(String s) {
+	Lib.assertTrue(enabled());
+
+	if (s == null)
+	    s = "";
+
+	Integer id = (Integer) names.get(s);
+	if (id != null)
+	    return id.intValue();
+
+	int n = names.size();
+	names.put(s, new Integer(n));
+
+	byte[] bytes = s.getBytes();
+	write(eventName, n, bytes.length, 0);
+	for (int i=0; i<bytes.length; i+=4) {
+	    int word = 0;
+	    for (int j=0; j<4; j++) {
+		word <<= 8;
+		if (i+j < bytes.length)
+		    word |= bytes[i+j] & 0xFF;
+	    }
+	    if (buffer.remaining() < 4)
+		flush();
+	    buffer.putInt(word);
+	}
+
+	return n;
+    }
+
+    /**
+     * Append an event to the log.
+     *
+     * @param	type	the event type, one of the <tt>eventZZZ</tt> constants.
+     * @param	a1	the first argument.
+     * @param	a2	the second argument.
+     * @param	a3	the third argument.
+     */
+    public static void write(int type, int a1, int a2, int a3) {
+	Lib.assertTrue(enabled());
+
+	if (buffer.remaining() < recordSize)
+	    flush();
+
+	buffer.putLong(Machine.timer() != null ? Machine.timer().getTime() : 0);
+	buffer.putInt(type);
+	buffer.putInt(a1);
+	buffer.putInt(a2);
+	buffer.putInt(a3);
+    }
+
+    /**
+     * Write out any buffered events and close the log. Called by
+     * <tt>Machine.terminate()</tt>.
+     */
+    public static void close() {
+	if (channel == null)
+	    return;
+
+	flush();
+	try {
+	    channel.close();
+	}
+	catch (IOException e) {
+	}
+	channel = null;
+    }
+
+    private static void flush() {
+	buffer.flip();
+	try {
+	    while (buffer.hasRemaining())
+		channel.write(buffer);
+	}
+	catch (IOException e) {
+	    System.out.println("event log: " + e);
+	}
+	buffer.clear();
+    }
+
+    private static void initialize() {
+	initialized = true;
+
+	String fileName = Config.getString("statistics.eventLog");
+	if (fileName == null)
+	    return;
+
+	try {
+	    RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+	    file.setLength(0);
+	    channel = file.getChannel();
+	}
+	catch (IOException e) {
+	    System.out.println("event log: " + e);
+	    return;
+	}
+
+	buffer = ByteBuffer.allocateDirect(bufferSize);
+	buffer.putInt(magic);
+    }
+
+    /** A string; <tt>(number, length)</tt>, followed by its bytes. */
+    public static final int eventName = 0;
+    /** A process was loaded; <tt>(pid, name, pages)</tt>. */
+    public static final int eventLoad = 1;
+    /** A process is waiting for memory; <tt>(pid, name, pages)</tt>. */
+    public static final int eventWait = 2;
+    /** A process can never fit in memory; <tt>(pid, name, pages)</tt>. */
+    public static final int eventReject = 3;
+    /** A page fault was handled; <tt>(pid, vpn, ppn)</tt>. */
+    public static final int eventFault = 4;
+    /** A process exited; <tt>(pid, name, status)</tt>. */
+    public static final int eventExit = 5;
+    /** A thread was forked; <tt>(thread, name, 0)</tt>. */
+    public static final int eventFork = 6;
+    /** A thread was given the CPU; <tt>(thread, previous thread, 0)</tt>. */
+    public static final int eventRun = 7;
+    /** A thread blocked; <tt>(thread, 0, 0)</tt>. */
+    public static final int eventBlock = 8;
+    /** A thread finished; <tt>(thread, 0, 0)</tt>. */
+    public static final int eventFinish = 9;
+
+    /** Names of the event types, indexed by type. */
+    public static final String[] eventNames = {
+	"name", "load", "wait", "reject", "fault", "exit",
+	"fork", "run", "block", "finish"
+    };
+
+    static final int magic = 0x4e45564c;
+    static final int recordSize = 24;
+    private static final int bufferSize = 1 << 16;
+
+    private static boolean initialized = false;
+    private static FileChannel channel = null;
+    private static ByteBuffer buffer = null;
+    private static HashMap names = new HashMap();
+}
@@ -0,0 +1,91 @@
+package nachos.machine;
+
+import java.io.DataInputStream;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Converts an event log written by <tt>EventLog</tt> to CSV, one event per
+ * line:
+ *
+ * <p>
+ * <pre>tick,event,arg1,arg2,arg3</pre>
+ *
+ * <p>
+ * Arguments that are string numbers are printed as the strings. Run it
+ * outside Nachos, after the simulation has terminated:
+ *
+ * <p>
+ * <pre>java nachos.machine.EventLogDecoder events.bin &gt; events.csv</pre>
+ */
+public final class EventLogDecoder {
+    /**
+     * Prevent instantiation.
+     */
+    private EventLogDecoder() {
+    }
+
+    /**
+     * Decode the event log named by the first argument.
+     *
+     * @param	args	the command line arguments.
+     */
+    public static void main(String[] args) throws IOException {
+	String fileName = (args.length > 0) ? args[0] : "events.bin";
+
+	DataInputStream in = new DataInputStream(
+	    new BufferedInputStream(new FileInputStream(fileName)));
+
+	if (in.readInt() != EventLog.magic) {
+	    System.err.println(fileName + " is not an event log");
+	    System.exit(1);
+	}
+
+	ArrayList names = new ArrayList();
+
+	System.out.println("tick,event,arg1,arg2,arg3");
+
+	while (true) {
+	    long tick;
+	    try {
+		tick = in.readLong();
+	    }
+	    catch (EOFException e) {
+		break;
+	    }
+	    int type = in.readInt();
+	    int a1 = in.readInt();
+	    int a2 = in.readInt();
+	    int a3 = in.readInt();
+
+	    if (type == EventLog.eventName) {
+		byte[] bytes = new byte[(a2+3) & ~3];
+		in.readFully(bytes);
+		names.add(new String(bytes, 0, a2));
+		continue;
+	    }
+
+	    String event = (type >= 0 && type < EventLog.eventNames.length) ?
+		EventLog.eventNames[type] : ("" + type);
+
+	    String arg2 = "" + a2;
+	    switch (type) {
+	    case EventLog.eventLoad:
+	    case EventLog.eventWait:
+	    case EventLog.eventReject:
+	    case EventLog.eventExit:
+	    case EventLog.eventFork:
+		arg2 = (String) names.get(a2);
+		break;
+	    }
+
+	    System.out.println(tick + "," + event + "," + a1 + "," + arg2 +
+			       "," + a3);
+	}
+
+	in.close();
+    }
+}
@@ -0,0 +1,147 @@
+package nachos.machine;
+
+/**
+ * A histogram of non-negative <tt>long</tt> values with bounded relative
+ * error, in the style of HdrHistogram. Values below <tt>subBucketCount</tt>
+ * get a bucket each; above that, every power of two is split into
+ * <tt>subBucketCount/2</tt> equal buckets, so a value is reported within
+ * about 6% of what was recorded. Recording is a few shifts and an array
+ * increment, with no allocation.
+ *
+ * @see	nachos.machine.Metrics#histogram
+ */
+public final class Histogram {
+    /**
+     * Allocate a new, empty histogram.
+     *
+     * @param	name	the name to export this histogram under.
+     */
+    public Histogram(String name) {
+	this.name = name;
+    }
+
+    /**
+     * Record a value. Negative values are recorded as zero.
+     *
+     * @param	value	the value to record.
+     */
+    public void record(long value) {
+	if (value < 0)
+	    value = 0;
+
+	counts[indexOf(value)]++;
+	count++;
+	sum += value;
+	if (value < min)
+	    min = value;
+	if (value > max)
+	    max = value;
+    }
+
+    /**
+     * Return the name of this histogram.
+     *
+     * @return	the name of this histogram.
+     */
+    public String getName() {
+	return name;
+    }
+
+    /**
+     * Return the number of values recorded.
+     *
+     * @return	the number of values recorded.
+     */
+    public long getCount() {
+	return count;
+    }
+
+    /**
+     * Return the sum of the values recorded.
+     *
+     * @return	the sum of the values recorded.
+     */
+    public long getSum() {
+	return sum;
+    }
+
+    /**
+     * Return the smallest value recorded, or 0 if there are none.
+     *
+     * @return	the smallest value recorded.
+     */
+    public long getMin() {
+	return (count == 0) ? 0 : min;
+    }
+
+    /**
+     * Return the largest value recorded, or 0 if there are none.
+     *
+     * @return	the largest value recorded.
+     */
+    public long getMax() {
+	return max;
+    }
+
+    /**
+     * Return a value that the specified percentage of recorded values are
+     * less than or equal to, to within the precision of the buckets.
+     *
+     * @param	percentile	the percentage, between 0 and 100.
+     * @return	the value at that percentile, or 0 if there are no values.
+     */
+    public long getValueAtPercentile(double percentile) {
+	if (count == 0)
+	    return 0;
+
+	long target = (long) Math.ceil(percentile / 100 * count);
+	if (target < 1)
+	    target = 1;
+
+	long seen = 0;
+	for (int i=0; i<counts.length; i++) {
+	    seen += counts[i];
+	    if (seen >= target)
+		return Math.min(highestValueAt(i), max);
+	}
+
+	return max;
+    }
+
+    /**
+     * Forget every value recorded.
+     */
+    public void reset() {
+	for (int i=0; i<counts.length; i++)
+	    counts[i] = 0;
+	count = sum = max = 0;
+	min = Long.MAX_VALUE;
+    }
+
+    private static int indexOf(long value) {
+	if (value < subBucketCount)
+	    return (int) value;
+
+	int magnitude = 63 - Long.numberOfLeadingZeros(value);
+	int shift = magnitude - subBucketBits + 1;
+	return shift*subBucketHalf + (int) (value >>> shift);
+    }
+
+    private static long highestValueAt(int index) {
+	if (index < subBucketCount)
+	    return index;
+
+	int shift = index/subBucketHalf - 1;
+	long top = index - shift*subBucketHalf;
+	return ((top+1) << shift) - 1;
+    }
+
+    private static final int subBucketBits = 5;
+    private static final int subBucketCount = 1 << subBucketBits;
+    private static final int subBucketHalf = subBucketCount / 2;
+
+    private String name;
+    private long[] counts = new long[64*subBucketHalf];
+    private long count = 0, sum = 0;
+    private long min = Long.MAX_VALUE, max = 0;
+}
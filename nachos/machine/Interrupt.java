@@ -7,6 +7,7 @@ import nachos.security.*;
 import java.util.TreeSet;
 import java.util.Iterator;
 import java.util.SortedSet;
+import java.util.LinkedList;
 
 /**
  * The <tt>Interrupt</tt> class emulates low-level interrupt hardware. The
@@ -120,6 +121,112 @@ public final class Interrupt {
 	return !enabled;
     }
 
+    /**
+     * Advance the simulated time directly to the next pending interrupt and
+     * invoke every handler that is then due. Time still advances in whole
+     * kernel ticks, so the handlers run at the same time as they would if the
+     * caller had enabled interrupts over and over until they were due, but
+     * without the host doing that work. Interrupts must be disabled.
+     *
+     * @return	<tt>false</tt> if no interrupt is pending.
+     */
+    public boolean idle() {
+	Lib.assertTrue(disabled());
+
+	if (pending.isEmpty())
+	    return false;
+
+	Stats stats = privilege.stats;
+	long time = ((PendingInterrupt) pending.first()).time;
+
+	if (time > stats.totalTicks) {
+	    long skipped = (time - stats.totalTicks + Stats.KernelTick - 1) /
+		Stats.KernelTick * Stats.KernelTick;
+	    stats.kernelTicks += skipped;
+	    stats.totalTicks += skipped;
+
+	    if (Lib.test(dbgInt))
+		System.out.println("== Idle until " + stats.totalTicks + " ==");
+	}
+
+	checkIfDue();
+	return true;
+    }
+
+    /**
+     * Send an inter-processor interrupt to the processor with the specified
+     * number. The handler is invoked on that processor, with interrupts
+     * disabled, the next time simulated time advances while it is executing.
+     * A processor may interrupt itself.
+     *
+     * @param	number	the number of the processor to interrupt.
+     * @param	handler	the interrupt handler to invoke.
+     */
+    public void sendIPI(int number, Runnable handler) {
+	Lib.assertTrue(number >= 0 && number < Machine.numProcessors());
+
+	if (ipis == null) {
+	    ipis = new LinkedList[Machine.numProcessors()];
+	    for (int i=0; i<ipis.length; i++)
+		ipis[i] = new LinkedList();
+	}
+
+	Lib.debug(dbgInt, "Sending an IPI to processor ", number);
+
+	ipis[number].add(handler);
+	numIPIs++;
+	privilege.stats.numIPIs++;
+    }
+
+    /**
+     * Write the time and type of every pending interrupt to a checkpoint.
+     */
+    void savePending(Checkpoint c) {
+	c.writeInt(pending.size());
+	for (Iterator i=pending.iterator(); i.hasNext(); ) {
+	    PendingInterrupt toOccur = (PendingInterrupt) i.next();
+	    c.writeLong(toOccur.time);
+	    c.writeString(toOccur.type);
+	}
+    }
+
+    /**
+     * Move each pending interrupt to the time of the first saved interrupt of
+     * the same type not already used. Those with no saved interrupt to match
+     * keep the same delay, so move by <i>delta</i>, the change in the time.
+     */
+    void restorePending(Checkpoint c, long delta) {
+	int n = c.readInt();
+	long[] times = new long[n];
+	String[] types = new String[n];
+	for (int i=0; i<n; i++) {
+	    times[i] = c.readLong();
+	    types[i] = c.readString();
+	}
+
+	PendingInterrupt[] current =
+	    (PendingInterrupt[]) pending.toArray(new PendingInterrupt[0]);
+	pending.clear();
+
+	for (int i=0; i<current.length; i++) {
+	    current[i].time += delta;
+	    for (int j=0; j<n; j++) {
+		if (types[j] != null && types[j].equals(current[i].type)) {
+		    current[i].time = times[j];
+		    types[j] = null;
+		    break;
+		}
+	    }
+	    pending.add(current[i]);
+	}
+
+	for (int j=0; j<n; j++) {
+	    if (types[j] != null)
+		Lib.debug(dbgInt, "Dropping the saved " + types[j] +
+			  " interrupt, nothing schedules it");
+	}
+    }
+
     private void schedule(long when, String type, Runnable handler) {
 	Lib.assertTrue(when>0);
 	
@@ -161,6 +268,9 @@ public final class Interrupt {
 	if (Lib.test(dbgInt))
 	    print();
 
+	if (numIPIs > 0)
+	    deliverIPIs();
+
 	if (pending.isEmpty())
 	    return;
 
@@ -187,6 +297,22 @@ public final class Interrupt {
 	Lib.debug(dbgInt, "  (end of list)");
     }
 
+    private void deliverIPIs() {
+	LinkedList queue = ipis[Machine.currentProcessor()];
+
+	while (!queue.isEmpty()) {
+	    Runnable handler = (Runnable) queue.removeFirst();
+	    numIPIs--;
+
+	    if (privilege.processor != null)
+		privilege.processor.flushPipe();
+
+	    Lib.debug(dbgInt, "  IPI on processor ", Machine.currentProcessor());
+
+	    handler.run();
+	}
+    }
+
     private void print() {
 	System.out.println("Time: " + privilege.stats.totalTicks
 			   + ", interrupts " + (enabled ? "on" : "off"));
@@ -238,6 +364,9 @@ public final class Interrupt {
 
     private boolean enabled;
     private TreeSet pending;
+    /** The IPIs not yet delivered to each processor. */
+    private LinkedList[] ipis = null;
+    private int numIPIs = 0;
 
     private static final char dbgInt = 'i';
 
@@ -8,6 +8,10 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.security.PrivilegedAction;
 import java.util.Random;
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 
 /**
  * Thrown when an assertion fails.
@@ -32,7 +36,7 @@ public final class Lib {
     private Lib() {
     }
 
-    private static Random random = null;
+    private static SavableRandom random = null;
 
     /**
      * Seed the random number generater. May only be called once.
@@ -41,9 +45,25 @@ public final class Lib {
      */
     public static void seedRandom(long randomSeed) {
 	assertTrue(random == null);
-	random = new Random(randomSeed);
+	random = new SavableRandom(randomSeed);
     }
     
+    /**
+     * Return the state of the random number generator, for
+     * <tt>Checkpoint</tt>.
+     */
+    static long getRandomState() {
+	return random.state;
+    }
+
+    /**
+     * Set the state of the random number generator to one saved by
+     * <tt>getRandomState()</tt>.
+     */
+    static void setRandomState(long state) {
+	random.state = state;
+    }
+
     /**
      * Return a random integer between 0 and <i>range - 1</i>. Must not be
      * called before <tt>seedRandom()</tt> seeds the random number generator.
@@ -126,6 +146,51 @@ public final class Lib {
 	    System.out.println(message);
     }
 
+    /**
+     * Print <i>message</i> followed by <i>arg</i> if <i>flag</i> was enabled
+     * on the command line. The string is only built if the flag is enabled,
+     * so this can be called on hot paths without allocating anything.
+     *
+     * @param	flag	the debug flag that must be set to print this message.
+     * @param	message	the start of the debug message.
+     * @param	arg	the object to append to the message.
+     */
+    public static void debug(char flag, String message, Object arg) {
+	if (test(flag))
+	    System.out.println(message + arg);
+    }
+
+    /**
+     * Print <i>message</i> followed by <i>arg</i> if <i>flag</i> was enabled
+     * on the command line. Unlike passing an <tt>Integer</tt>, this does not
+     * box <i>arg</i> when the flag is disabled.
+     *
+     * @param	flag	the debug flag that must be set to print this message.
+     * @param	message	the start of the debug message.
+     * @param	arg	the number to append to the message.
+     */
+    public static void debug(char flag, String message, int arg) {
+	if (test(flag))
+	    System.out.println(message + arg);
+    }
+
+    /**
+     * Print <i>message1</i>, <i>arg1</i>, <i>message2</i> and <i>arg2</i> if
+     * <i>flag</i> was enabled on the command line. The string is only built if
+     * the flag is enabled.
+     *
+     * @param	flag	the debug flag that must be set to print this message.
+     * @param	message1	the start of the debug message.
+     * @param	arg1	the first object to append.
+     * @param	message2	the text between the two objects.
+     * @param	arg2	the second object to append.
+     */
+    public static void debug(char flag, String message1, Object arg1,
+			     String message2, Object arg2) {
+	if (test(flag))
+	    System.out.println(message1 + arg1 + message2 + arg2);
+    }
+
     /**
      * Tests if <i>flag</i> was enabled on the command line.
      *
@@ -164,6 +229,155 @@ public final class Lib {
     /** Debug flags specified on the command line. */
     private static boolean debugFlags[];
 
+    /**
+     * Register the name of a trace event. Call this once, from a static
+     * initializer, and pass the result to <tt>trace()</tt>.
+     *
+     * @param	name	the name the decoder prints for the event.
+     * @return	the number of the event.
+     */
+    public static int traceEvent(String name) {
+	assertTrue(numTraceEvents < 0x10000);
+
+	if (numTraceEvents == traceEventNames.length) {
+	    String[] names = new String[numTraceEvents*2];
+	    System.arraycopy(traceEventNames, 0, names, 0, numTraceEvents);
+	    traceEventNames = names;
+	}
+
+	traceEventNames[numTraceEvents] = name;
+	return numTraceEvents++;
+    }
+
+    /**
+     * Tests if <i>flag</i> was enabled for binary tracing on the command line.
+     *
+     * @param	flag	the trace flag to test.
+     *
+     * @return	<tt>true</tt> if events under this flag are being recorded.
+     */
+    public static boolean traceEnabled(char flag) {
+	if (traceFlags == null)
+	    return false;
+	else if (traceFlags[(int) '+'])
+	    return true;
+	else
+	    return (flag >= 0 && flag < 0x80 && traceFlags[(int) flag]);
+    }
+
+    /**
+     * Record an event in the trace buffer if <i>flag</i> was enabled for
+     * tracing with the -t command line option. Each record is the current
+     * tick, the flag, the event and two integer arguments, stored in arrays
+     * allocated up front, so recording never allocates. Once the buffer is
+     * full the oldest records are overwritten.
+     *
+     * @param	flag	the trace flag that must be set to record this event.
+     * @param	event	the event, as returned by <tt>traceEvent()</tt>.
+     * @param	arg1	the first argument of the event.
+     * @param	arg2	the second argument of the event.
+     */
+    public static void trace(char flag, int event, int arg1, int arg2) {
+	if (!traceEnabled(flag))
+	    return;
+
+	int i = (int) (numTraceRecords & (traceCapacity-1));
+
+	Timer timer = Machine.timer();
+	traceTicks[i] = (timer == null) ? 0 : timer.getTime();
+	traceWords[i*3] = (flag << 16) | event;
+	traceWords[i*3+1] = arg1;
+	traceWords[i*3+2] = arg2;
+
+	numTraceRecords++;
+    }
+
+    /**
+     * Enable binary tracing of all the flags in <i>flagsString</i>.
+     *
+     * @param	flagsString	the flags to enable.
+     */
+    public static void enableTraceFlags(String flagsString) {
+	if (traceFlags == null) {
+	    traceFlags = new boolean[0x80];
+	    traceTicks = new long[traceCapacity];
+	    traceWords = new int[traceCapacity*3];
+	}
+
+	char[] newFlags = flagsString.toCharArray();
+	for (int i=0; i<newFlags.length; i++) {
+	    char c = newFlags[i];
+	    if (c >= 0 && c < 0x80)
+		traceFlags[(int) c] = true;
+	}
+    }
+
+    /**
+     * Set the file the trace buffer is written to when Nachos terminates.
+     *
+     * @param	fileName	the name of the trace file.
+     */
+    public static void setTraceFile(String fileName) {
+	traceFileName = fileName;
+    }
+
+    /**
+     * Write the trace buffer to the trace file, oldest record first, if
+     * tracing was enabled. The file starts with the names of the events, so
+     * <tt>TraceDecoder</tt> can print it without access to the classes that
+     * registered them.
+     */
+    public static void writeTrace() {
+	if (traceFlags == null)
+	    return;
+
+	long first = Math.max(0, numTraceRecords - traceCapacity);
+
+	try {
+	    DataOutputStream out = new DataOutputStream(
+		new BufferedOutputStream(new FileOutputStream(traceFileName)));
+
+	    out.writeInt(traceMagic);
+	    out.writeInt(numTraceEvents);
+	    for (int i=0; i<numTraceEvents; i++)
+		out.writeUTF(traceEventNames[i]);
+
+	    out.writeLong(first);
+	    out.writeInt((int) (numTraceRecords - first));
+	    for (long n=first; n<numTraceRecords; n++) {
+		int i = (int) (n & (traceCapacity-1));
+		out.writeLong(traceTicks[i]);
+		out.writeInt(traceWords[i*3]);
+		out.writeInt(traceWords[i*3+1]);
+		out.writeInt(traceWords[i*3+2]);
+	    }
+
+	    out.close();
+	}
+	catch (IOException e) {
+	    System.out.println("could not write trace file " + traceFileName);
+	}
+    }
+
+    /** The first word of a trace file. */
+    static final int traceMagic = 0x4e545243;
+
+    /** Number of records the trace buffer holds, a power of 2. */
+    private static final int traceCapacity = 1 << 16;
+
+    /** Trace flags specified on the command line. */
+    private static boolean traceFlags[] = null;
+    private static String[] traceEventNames = new String[16];
+    private static int numTraceEvents = 0;
+    private static String traceFileName = "nachos.trace";
+
+    /** The tick of each record. */
+    private static long[] traceTicks;
+    /** The flag and event, and the two arguments of each record. */
+    private static int[] traceWords;
+    /** Records ever written; the buffer holds the last traceCapacity. */
+    private static long numTraceRecords = 0;
+
     /**
      * Read a file, verifying that the requested number of bytes is read, and
      * verifying that the read operation took a non-zero amount of time.
@@ -467,7 +681,7 @@ public final class Lib {
      */
     public static Class tryLoadClass(String className) {
 	try {
-	    return ClassLoader.getSystemClassLoader().loadClass(className);
+	    return Lib.class.getClassLoader().loadClass(className);
 	}
 	catch (Throwable e) {
 	    return null;
@@ -482,7 +696,7 @@ public final class Lib {
      */
     public static Class loadClass(String className) {
 	try {
-	    return ClassLoader.getSystemClassLoader().loadClass(className);
+	    return Lib.class.getClassLoader().loadClass(className);
 	}
 	catch (Throwable e) {
 	    Machine.terminate(e);
@@ -635,4 +849,32 @@ public final class Lib {
 	    Lib.assertNotReached();
 	}
     }
+
+    /**
+     * The generator behind <tt>random()</tt>. It produces the same numbers as
+     * <tt>java.util.Random</tt>, but keeps its seed where a checkpoint can
+     * read it.
+     */
+    private static class SavableRandom extends Random {
+	SavableRandom(long seed) {
+	    super(seed);
+	}
+
+	public void setSeed(long seed) {
+	    //called by the Random constructor, before our fields are set
+	    state = (seed ^ multiplier) & mask;
+	}
+
+	protected int next(int bits) {
+	    state = (state * multiplier + addend) & mask;
+	    return (int) (state >>> (48 - bits));
+	}
+
+	long state;
+
+	private static final long serialVersionUID = 1L;
+	private static final long multiplier = 0x5DEECE66DL;
+	private static final long addend = 0xBL;
+	private static final long mask = (1L << 48) - 1;
+    }
 }
@@ -51,8 +51,13 @@ public final class Machine {
 
         TCB.givePrivilege(privilege);
         privilege.stats = stats;
+        Metrics.setStats(stats);
+        Checkpoint.setStats(stats);
 
-        securityManager.enable();
+        if (embedded)
+            securityManager.setEmbedded();
+        else
+            securityManager.enable();
         createDevices();
         checkUserClasses();
 
@@ -63,6 +68,25 @@ public final class Machine {
                 });
     }
 
+    /**
+     * Run Nachos without taking over the JVM, so that the caller can run
+     * another simulation afterwards. The security manager is not installed,
+     * and when Nachos terminates, its threads are stopped instead of the JVM
+     * exiting. Every class of this simulation must have been loaded by a
+     * class loader of its own, since the machine and kernel keep their state
+     * in static fields; <tt>Simulation</tt> arranges this.
+     *
+     * @param	args	the command line arguments.
+     * @return	the status Nachos exited with.
+     *
+     * @see	nachos.machine.Simulation
+     */
+    public static int runEmbedded(String[] args) {
+        embedded = true;
+        main(args);
+        return securityManager.getExitStatus();
+    }
+
     /**
      * Yield to non-Nachos threads. Use in non-preemptive JVM's to give
      * non-Nachos threads a chance to run.
@@ -75,6 +99,9 @@ public final class Machine {
      * Terminate Nachos. Same as <tt>TCB.die()</tt>.
      */
     public static void terminate() {
+        Lib.writeTrace();
+        EventLog.close();
+        Metrics.close();
         TCB.die();
     }
 
@@ -121,6 +148,14 @@ public final class Machine {
                     Lib.assertTrue(i < args.length, "switch without argument");
                     Lib.enableDebugFlags(args[i++]);
                 }
+                else if (arg.equals("-t")) {
+                    Lib.assertTrue(i < args.length, "switch without argument");
+                    Lib.enableTraceFlags(args[i++]);
+                }
+                else if (arg.equals("-T")) {
+                    Lib.assertTrue(i < args.length, "switch without argument");
+                    Lib.setTraceFile(args[i++]);
+                }
                 else if (arg.equals("-h")) {
                     System.out.print(help);
                     System.exit(1);
@@ -170,6 +205,9 @@ public final class Machine {
         interrupt = new Interrupt(privilege);
         timer = new Timer(privilege);
 
+        numProcessors = Config.getInteger("Machine.numProcessors", 1);
+        Lib.assertTrue(numProcessors >= 1);
+
         if (Config.getBoolean("Machine.bank"))
             bank = new ElevatorBank(privilege);
 
@@ -177,6 +215,11 @@ public final class Machine {
             if (numPhysPages == -1)
                 numPhysPages = Config.getInteger("Processor.numPhysPages");
             processor = new Processor(privilege, numPhysPages);
+
+            processors = new Processor[numProcessors];
+            processors[0] = processor;
+            for (int i=1; i<numProcessors; i++)
+                processors[i] = new Processor(privilege, processor, i);
         }				      
 
         if (Config.getBoolean("Machine.console"))
@@ -317,12 +360,59 @@ public final class Machine {
     public static ElevatorBank bank() { return bank; }
 
     /**
-     * Return the MIPS processor.
+     * Return the MIPS processor. On a multiprocessor machine, this is the
+     * processor that is executing.
      *
      * @return	the MIPS processor, or <tt>null</tt> if it is not present.
      */     
     public static Processor processor() { return processor; }
 
+    /**
+     * Return the MIPS processor with the specified number.
+     *
+     * @param	number	the number of the processor, from 0 to
+     *			<tt>numProcessors()-1</tt>.
+     * @return	the MIPS processor, or <tt>null</tt> if it is not present.
+     */
+    public static Processor processor(int number) {
+        Lib.assertTrue(number >= 0 && number < numProcessors);
+        return (processors == null) ? null : processors[number];
+    }
+
+    /**
+     * Return the number of processors, set by
+     * <tt>Machine.numProcessors</tt>. The default is 1.
+     *
+     * @return	the number of processors.
+     */
+    public static int numProcessors() { return numProcessors; }
+
+    /**
+     * Return the number of the processor that is executing.
+     *
+     * @return	the number of the executing processor.
+     */
+    public static int currentProcessor() { return currentProcessor; }
+
+    /**
+     * Make the processor with the specified number the one that executes.
+     * Only one simulated processor executes at a time, and they all share the
+     * same clock, so a multiprocessor kernel switches between them to give
+     * each a turn, much as one core runs several hardware threads. The MIPS
+     * processors, if present, all share main memory.
+     *
+     * @param	number	the number of the processor to execute.
+     */
+    public static void setCurrentProcessor(int number) {
+        Lib.assertTrue(number >= 0 && number < numProcessors);
+
+        currentProcessor = number;
+        if (processors != null) {
+            processor = processors[number];
+            processor.select();
+        }
+    }
+
     /**
      * Return the hardware console.
      *
@@ -355,6 +445,9 @@ public final class Machine {
     private static Timer timer = null;
     private static ElevatorBank bank = null;
     private static Processor processor = null;
+    private static Processor[] processors = null;
+    private static int numProcessors = 1;
+    private static int currentProcessor = 0;
     private static SerialConsole console = null;
     private static FileSystem stubFileSystem = null;
     private static NetworkLink networkLink = null;
@@ -404,6 +497,7 @@ public final class Machine {
     private static String processClassName = null;
 
     private static NachosSecurityManager securityManager;
+    private static boolean embedded = false;
     private static Privilege privilege;
 
     private static String[] args = null;
@@ -423,6 +517,14 @@ public final class Machine {
         "\t-d <debug flags>\n" +
         "\t\tEnable some debug flags, e.g. -d ti\n" +
         "\n" +
+        "\t-t <trace flags>\n" +
+        "\t\tRecord events under these flags in the binary trace buffer,\n" +
+        "\t\te.g. -t tp\n" +
+        "\n" +
+        "\t-T <file>\n" +
+        "\t\tWrite the trace buffer to this file (default nachos.trace).\n" +
+        "\t\tDecode it with java nachos.machine.TraceDecoder <file>\n" +
+        "\n" +
         "\t-h\n" +
         "\t\tPrint this help message.\n" +
         "\n" +
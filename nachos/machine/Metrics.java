@@ -0,0 +1,249 @@
+package nachos.machine;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A registry of named counters, gauges and histograms that the kernel can
+ * update while it runs, so that distributions and not just end-of-run totals
+ * are available. Metrics are looked up by name once, typically into a static
+ * field, and are cheap enough to update on every event.
+ *
+ * <p>
+ * If <tt>statistics.metricsFile</tt> names a file, a snapshot of every metric,
+ * and of the counters in <tt>Stats</tt>, is appended to it as CSV every
+ * <tt>statistics.metricsInterval</tt> ticks (checked on each timer
+ * interrupt) and when Nachos terminates:
+ *
+ * <p>
+ * <pre>tick,kind,name,count,value,min,p50,p90,p99,max</pre>
+ *
+ * <p>
+ * <tt>value</tt> is the count or level for counters and gauges, and the mean
+ * for histograms.
+ */
+public final class Metrics {
+    /**
+     * Prevent instantiation.
+     */
+    private Metrics() {
+    }
+
+    /**
+     * A value that only goes up.
+     */
+    public static final class Counter {
+	Counter(String name) {
+	    this.name = name;
+	}
+
+	/** Add one to this counter. */
+	public void increment() {
+	    value++;
+	}
+
+	/** Add the specified amount to this counter. */
+	public void add(long amount) {
+	    value += amount;
+	}
+
+	/** Return the value of this counter. */
+	public long get() {
+	    return value;
+	}
+
+	private String name;
+	private long value = 0;
+    }
+
+    /**
+     * A value that goes up and down, such as the number of ready threads.
+     * The largest value it has held is exported too.
+     */
+    public static final class Gauge {
+	Gauge(String name) {
+	    this.name = name;
+	}
+
+	/** Set the level of this gauge. */
+	public void set(long value) {
+	    this.value = value;
+	    if (value > peak)
+		peak = value;
+	}
+
+	/** Add the specified amount, which may be negative, to this gauge. */
+	public void add(long amount) {
+	    set(value + amount);
+	}
+
+	/** Return the level of this gauge. */
+	public long get() {
+	    return value;
+	}
+
+	/** Return the largest level this gauge has held. */
+	public long getPeak() {
+	    return peak;
+	}
+
+	private String name;
+	private long value = 0, peak = 0;
+    }
+
+    /**
+     * Return the counter with the specified name, creating it if needed.
+     *
+     * @param	name	the name of the counter.
+     * @return	the counter.
+     */
+    public static Counter counter(String name) {
+	Counter c = (Counter) registry.get(name);
+	if (c == null) {
+	    c = new Counter(name);
+	    registry.put(name, c);
+	}
+	return c;
+    }
+
+    /**
+     * Return the gauge with the specified name, creating it if needed.
+     *
+     * @param	name	the name of the gauge.
+     * @return	the gauge.
+     */
+    public static Gauge gauge(String name) {
+	Gauge g = (Gauge) registry.get(name);
+	if (g == null) {
+	    g = new Gauge(name);
+	    registry.put(name, g);
+	}
+	return g;
+    }
+
+    /**
+     * Return the histogram with the specified name, creating it if needed.
+     *
+     * @param	name	the name of the histogram.
+     * @return	the histogram.
+     */
+    public static Histogram histogram(String name) {
+	Histogram h = (Histogram) registry.get(name);
+	if (h == null) {
+	    h = new Histogram(name);
+	    registry.put(name, h);
+	}
+	return h;
+    }
+
+    /**
+     * Write a snapshot if one is due. Called on each timer interrupt.
+     *
+     * @param	time	the current time, in ticks.
+     */
+    static void poll(long time) {
+	if (!initialized)
+	    initialize();
+
+	if (writer != null && interval > 0 && time >= nextSnapshot) {
+	    snapshot(time);
+	    nextSnapshot = time + interval;
+	}
+    }
+
+    /**
+     * Write a final snapshot and close the metrics file. Called by
+     * <tt>Machine.terminate()</tt>.
+     */
+    static void close() {
+	if (!initialized)
+	    initialize();
+
+	if (writer == null)
+	    return;
+
+	snapshot(stats.totalTicks);
+	writer.close();
+	writer = null;
+    }
+
+    static void setStats(Stats stats) {
+	Metrics.stats = stats;
+    }
+
+    private static void snapshot(long time) {
+	writeStat(time, "ticks.total", stats.totalTicks);
+	writeStat(time, "ticks.kernel", stats.kernelTicks);
+	writeStat(time, "ticks.user", stats.userTicks);
+	writeStat(time, "pageFaults", stats.numPageFaults);
+	writeStat(time, "tlbMisses", stats.numTLBMisses);
+	writeStat(time, "console.reads", stats.numConsoleReads);
+	writeStat(time, "console.writes", stats.numConsoleWrites);
+	writeStat(time, "disk.reads", stats.numDiskReads);
+	writeStat(time, "disk.writes", stats.numDiskWrites);
+
+	for (Iterator i=registry.values().iterator(); i.hasNext(); ) {
+	    Object metric = i.next();
+
+	    if (metric instanceof Counter) {
+		Counter c = (Counter) metric;
+		writer.println(time + ",counter," + c.name + ",," + c.value +
+			       ",,,,,");
+	    }
+	    else if (metric instanceof Gauge) {
+		Gauge g = (Gauge) metric;
+		writer.println(time + ",gauge," + g.name + ",," + g.value +
+			       ",,,,," + g.peak);
+	    }
+	    else {
+		Histogram h = (Histogram) metric;
+		long n = h.getCount();
+		writer.println(time + ",histogram," + h.getName() + "," + n +
+			       "," + ((n == 0) ? 0 : h.getSum() / n) +
+			       "," + h.getMin() +
+			       "," + h.getValueAtPercentile(50) +
+			       "," + h.getValueAtPercentile(90) +
+			       "," + h.getValueAtPercentile(99) +
+			       "," + h.getMax());
+	    }
+	}
+
+	writer.flush();
+    }
+
+    private static void writeStat(long time, String name, long value) {
+	writer.println(time + ",stat," + name + ",," + value + ",,,,,");
+    }
+
+    private static void initialize() {
+	initialized = true;
+
+	String fileName = Config.getString("statistics.metricsFile");
+	if (fileName == null || stats == null)
+	    return;
+
+	interval = Config.getInteger("statistics.metricsInterval", 0);
+	nextSnapshot = interval;
+
+	try {
+	    writer = new PrintWriter(new FileWriter(fileName));
+	}
+	catch (IOException e) {
+	    System.out.println("metrics: " + e);
+	    return;
+	}
+
+	writer.println("tick,kind,name,count,value,min,p50,p90,p99,max");
+    }
+
+    private static LinkedHashMap registry = new LinkedHashMap();
+
+    private static Stats stats = null;
+    private static boolean initialized = false;
+    private static PrintWriter writer = null;
+    private static long interval = 0;
+    private static long nextSnapshot = 0;
+}
@@ -18,6 +18,8 @@ import nachos.security.*;
  * <p>
  * An instance of a <tt>Processor</tt> also includes pages of physical memory
  * accessible to user programs, the size of which is fixed by the constructor.
+ * The other processors of a multiprocessor machine share the memory of the
+ * first, but have registers and a TLB of their own.
  */
 public final class Processor {
     /**
@@ -31,7 +33,7 @@ public final class Processor {
     public Processor(Privilege privilege, int numPhysPages) {
 	System.out.print(" processor");
 	this.privilege = privilege;
-	privilege.processor = new ProcessorPrivilege();
+	privilege.processor = pipeline;
 
 	Class clsKernel = Lib.loadClass(Config.getString("Kernel.kernel"));
 	Class clsVMKernel = Lib.tryLoadClass("nachos.vm.VMKernel");
@@ -56,6 +58,50 @@ public final class Processor {
 	}
     }
 
+    /**
+     * Allocate another processor for a multiprocessor machine. It shares the
+     * memory of <i>boot</i>.
+     *
+     * @param	privilege      	encapsulates privileged access to the Nachos
+     *				machine.
+     * @param	boot		the first processor.
+     * @param	number		the number of this processor.
+     */
+    Processor(Privilege privilege, Processor boot, int number) {
+	this.privilege = privilege;
+	this.number = number;
+
+	usingTLB = boot.usingTLB;
+	numPhysPages = boot.numPhysPages;
+	mainMemory = boot.mainMemory;
+
+	if (usingTLB) {
+	    translations = new TranslationEntry[tlbSize];
+	    for (int i=0; i<tlbSize; i++)
+		translations[i] = new TranslationEntry();
+	}
+	else {
+	    translations = null;
+	}
+    }
+
+    /**
+     * Return the number of this processor. The first processor is number 0.
+     *
+     * @return	the number of this processor.
+     */
+    public int getNumber() {
+	return number;
+    }
+
+    /**
+     * Make this the processor whose pipeline is flushed before interrupt
+     * handlers run. Called by <tt>Machine.setCurrentProcessor()</tt>.
+     */
+    void select() {
+	privilege.processor = pipeline;
+    }
+
     /**
      * Set the exception handler, called whenever a user exception occurs.
      *
@@ -88,19 +134,31 @@ public final class Processor {
 
 	registers[regNextPC] = registers[regPC] + 4;
 
+	resume();
+    }
+
+    /**
+     * Continue executing instructions at the current PC, keeping the next PC
+     * already in its register, as for a thread restored from a
+     * <tt>Checkpoint</tt> in the delay slot of a branch. Never returns.
+     */
+    public void resume() {
 	Machine.autoGrader().runProcessor(privilege);
 
-	Instruction inst = new Instruction();
+	// on a multiprocessor, the thread can move to another processor
+	// whenever time advances
+	Processor current = this;
 	
 	while (true) {
 	    try {
-		inst.run();
+		current.instruction.run();
 	    }
 	    catch (MipsException e) {
 		e.handle();
 	    }
 
 	    privilege.interrupt.tick(false);
+	    current = Machine.processor();
 	}
     }
 
@@ -301,6 +359,7 @@ public final class Processor {
 	// check alignment
 	if ((vaddr & (size-1)) != 0) {
 	    Lib.debug(dbgProcessor, "\t\talignment error");
+	    Lib.trace(dbgProcessor, traceAddressError, vaddr, 0);
 	    throw new MipsException(exceptionAddressError, vaddr);
 	}
 
@@ -317,6 +376,7 @@ public final class Processor {
 		!translations[vpn].valid) {
 		privilege.stats.numPageFaults++;
 		Lib.debug(dbgProcessor, "\t\tpage fault");
+		Lib.trace(dbgProcessor, tracePageFault, vaddr, vpn);
 		throw new MipsException(exceptionPageFault, vaddr);
 	    }
 
@@ -333,6 +393,7 @@ public final class Processor {
 	    if (entry == null) {
 		privilege.stats.numTLBMisses++;
 		Lib.debug(dbgProcessor, "\t\tTLB miss");
+		Lib.trace(dbgProcessor, traceTLBMiss, vaddr, vpn);
 		throw new MipsException(exceptionTLBMiss, vaddr);
 	    }
 	}
@@ -340,14 +401,15 @@ public final class Processor {
 	// check if trying to write a read-only page
 	if (entry.readOnly && writing) {
 	    Lib.debug(dbgProcessor, "\t\tread-only exception");
+	    Lib.trace(dbgProcessor, traceReadOnly, vaddr, vpn);
 	    throw new MipsException(exceptionReadOnly, vaddr);
 	}
 
 	// check if physical page number is out of range
 	int ppn = entry.ppn;
 	if (ppn < 0 || ppn >= numPhysPages) {
-        System.out.println("" + ppn);
-	    Lib.debug(dbgProcessor, "\t\tbad ppn");
+	    Lib.debug(dbgProcessor, "\t\tbad ppn ", ppn);
+	    Lib.trace(dbgProcessor, traceBadPPN, vaddr, ppn);
 	    throw new MipsException(exceptionBusError, vaddr);
 	}
 
@@ -527,6 +589,12 @@ public final class Processor {
 
     /** Provides privilege to this processor. */
     private Privilege privilege;
+    /** Lets the interrupt controller flush the pipeline of this processor. */
+    private ProcessorPrivilege pipeline = new ProcessorPrivilege();
+    /** The number of this processor. */
+    private int number = 0;
+    /** The instruction being executed by this processor. */
+    private Instruction instruction = new Instruction();
     
     /** MIPS registers accessible to the kernel. */
     private int registers[] = new int[numUserRegisters];
@@ -562,6 +630,11 @@ public final class Processor {
     private Runnable exceptionHandler = null;
 
     private static final char dbgProcessor = 'p';
+    private static final int traceAddressError = Lib.traceEvent("address error");
+    private static final int tracePageFault = Lib.traceEvent("page fault");
+    private static final int traceTLBMiss = Lib.traceEvent("TLB miss");
+    private static final int traceReadOnly = Lib.traceEvent("read-only");
+    private static final int traceBadPPN = Lib.traceEvent("bad ppn");
     private static final char dbgDisassemble = 'm';
     private static final char dbgFullDisassemble = 'M';
 
@@ -0,0 +1,204 @@
+package nachos.machine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.StringTokenizer;
+
+/**
+ * One run of Nachos inside a JVM that may run many, one after another. The
+ * machine and the kernel keep all their state in static fields, and
+ * <tt>Config</tt> can only be loaded once, so each simulation loads its own
+ * copy of every <tt>nachos</tt> class through a class loader of its own. Its
+ * statics, configuration and statistics are therefore separate from every
+ * other simulation's, and are thrown away with the loader when it is done.
+ * Only the JDK and the caller's classes are shared. Every <tt>nachos</tt>
+ * class, the simulator's hot code included, is loaded, interpreted and
+ * compiled by the JIT again for each run, so a run takes about as long as one
+ * in a fresh JVM; what it saves is starting that JVM.
+ *
+ * <p>
+ * Everything the simulation prints is captured and returned by
+ * <tt>getOutput()</tt> instead of going to the console.
+ *
+ * <p>
+ * <pre>
+ * Simulation sim = new Simulation(new String[] { "-[]", "conf/PA3/ChkMap_1024.conf" });
+ * int status = sim.run();
+ * String report = sim.getOutput();
+ * </pre>
+ *
+ * @see	nachos.machine.Machine#runEmbedded
+ */
+public final class Simulation {
+    /**
+     * Allocate a new simulation.
+     *
+     * @param	args	the command line arguments to pass to Nachos.
+     */
+    public Simulation(String[] args) {
+	this.args = args.clone();
+    }
+
+    /**
+     * Run the simulation to completion in the current thread.
+     *
+     * @return	the status Nachos exited with.
+     */
+    public int run() {
+	Lib.assertTrue(output == null, "simulation already run");
+
+	ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	PrintStream capture = new PrintStream(buffer, true);
+
+	installCapture();
+	PrintStream previous = (PrintStream) currentOutput.get();
+	currentOutput.set(capture);
+
+	SimulationLoader loader = new SimulationLoader();
+	try {
+	    Class machine = loader.loadClass(Machine.class.getName());
+	    Method runEmbedded =
+		machine.getMethod("runEmbedded", new Class[] { String[].class });
+
+	    Integer status =
+		(Integer) runEmbedded.invoke(null, new Object[] { args });
+	    exitStatus = status.intValue();
+	}
+	catch (InvocationTargetException e) {
+	    e.getTargetException().printStackTrace(capture);
+	    exitStatus = 1;
+	}
+	catch (Exception e) {
+	    e.printStackTrace(capture);
+	    exitStatus = 1;
+	}
+	finally {
+	    currentOutput.set(previous);
+	    try {
+		loader.close();
+	    }
+	    catch (IOException e) {
+	    }
+	}
+
+	capture.flush();
+	output = buffer.toString();
+	return exitStatus;
+    }
+
+    /**
+     * Return everything the simulation printed.
+     *
+     * @return	the output of the simulation, or <tt>null</tt> if it has not
+     *		run yet.
+     */
+    public String getOutput() {
+	return output;
+    }
+
+    /**
+     * Return the status the simulation exited with.
+     *
+     * @return	the exit status.
+     */
+    public int getExitStatus() {
+	return exitStatus;
+    }
+
+    /**
+     * Replace <tt>System.out</tt> and <tt>System.err</tt>, once, with streams
+     * that write to the capture buffer of the simulation that the current
+     * thread belongs to, or to the original stream if it belongs to none.
+     * Nachos threads are created by the simulation's threads, so they inherit
+     * its buffer.
+     */
+    private static synchronized void installCapture() {
+	if (captureInstalled)
+	    return;
+
+	System.setOut(new PrintStream(new Demultiplexer(System.out), true));
+	System.setErr(new PrintStream(new Demultiplexer(System.err), true));
+	captureInstalled = true;
+    }
+
+    private static class Demultiplexer extends OutputStream {
+	Demultiplexer(PrintStream original) {
+	    this.original = original;
+	}
+
+	private PrintStream target() {
+	    PrintStream out = (PrintStream) currentOutput.get();
+	    return (out != null) ? out : original;
+	}
+
+	public void write(int b) {
+	    target().write(b);
+	}
+
+	public void write(byte[] b, int off, int len) {
+	    target().write(b, off, len);
+	}
+
+	public void flush() {
+	    target().flush();
+	}
+
+	private PrintStream original;
+    }
+
+    /**
+     * Loads the <tt>nachos</tt> classes afresh from the class path, and
+     * leaves everything else, including this class, to the parent loader.
+     */
+    private static class SimulationLoader extends URLClassLoader {
+	SimulationLoader() {
+	    super(classPath(), Simulation.class.getClassLoader());
+	}
+
+	protected synchronized Class loadClass(String name, boolean resolve)
+	    throws ClassNotFoundException {
+	    if (!name.startsWith("nachos.") ||
+		name.startsWith(Simulation.class.getName()))
+		return super.loadClass(name, resolve);
+
+	    Class c = findLoadedClass(name);
+	    if (c == null)
+		c = findClass(name);
+	    if (resolve)
+		resolveClass(c);
+	    return c;
+	}
+
+	private static URL[] classPath() {
+	    ArrayList urls = new ArrayList();
+	    StringTokenizer st =
+		new StringTokenizer(System.getProperty("java.class.path"),
+				    File.pathSeparator);
+	    while (st.hasMoreTokens()) {
+		try {
+		    urls.add(new File(st.nextToken()).toURI().toURL());
+		}
+		catch (MalformedURLException e) {
+		}
+	    }
+	    return (URL[]) urls.toArray(new URL[0]);
+	}
+    }
+
+    private String[] args;
+    private String output = null;
+    private int exitStatus = 0;
+
+    private static InheritableThreadLocal currentOutput =
+	new InheritableThreadLocal();
+    private static boolean captureInstalled = false;
+}
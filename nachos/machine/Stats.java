@@ -29,6 +29,10 @@ public final class Stats {
 			   + ", TLB misses " + numTLBMisses);
 	System.out.println("Network I/O: received " + numPacketsReceived
 			   + ", sent " + numPacketsSent);
+	if (Machine.numProcessors() > 1)
+	    System.out.println("Multiprocessor: processors "
+			       + Machine.numProcessors()
+			       + ", IPIs " + numIPIs);
     }
 
     /**
@@ -61,6 +65,8 @@ public final class Stats {
     public int numPacketsSent = 0;
     /** The total number of packets Nachos has received from the network. */
     public int numPacketsReceived = 0;
+    /** The total number of inter-processor interrupts sent. */
+    public int numIPIs = 0;
 
     /**
      * The amount to advance simulated time after each user instructions is
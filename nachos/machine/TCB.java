@@ -107,6 +107,9 @@ public final class TCB {
 	    
 	    this.javaThread.start();
 	    currentTCB.waitForInterrupt();
+
+	    if (stopping)
+		throw new ThreadDeath();
 	}
 	else {
 	    /* This is the first TCB, so we don't need to make a new Java
@@ -238,6 +241,12 @@ public final class TCB {
 	    Lib.assertNotReached();
 	}
 	catch (ThreadDeath e) {
+	    // an embedded Nachos is shutting down; just let the thread end
+	    if (stopping) {
+		runningThreads.removeElement(this);
+		return;
+	    }
+
 	    // make sure this TCB is being destroyed properly
 	    if (!done) {
 		System.out.print("\nTCB terminated improperly!\n");
@@ -249,6 +258,11 @@ public final class TCB {
 		privilege.exit(0);
 	}
 	catch (Throwable e) {
+	    if (stopping) {
+		runningThreads.removeElement(this);
+		return;
+	    }
+
 	    System.out.print("\n");
 	    e.printStackTrace();
 
@@ -270,6 +284,9 @@ public final class TCB {
      */
     private void yield() {
 	waitForInterrupt();
+
+	if (stopping)
+	    throw new ThreadDeath();
 	
 	if (done) {
 	    currentTCB.interrupt();
@@ -319,6 +336,25 @@ public final class TCB {
 	    nachosThread = thread;
     }
 
+    /**
+     * Wake every other TCB so that it throws <tt>ThreadDeath</tt> out of
+     * <tt>yield()</tt>, then do the same in the current thread. Each
+     * <tt>threadroot()</tt> sees <tt>stopping</tt> and returns quietly, and
+     * the first TCB's returns from <tt>Machine.main()</tt>.
+     */
+    private static void stopAll() {
+	stopping = true;
+
+	Object[] tcbs = runningThreads.toArray();
+	for (int i=0; i<tcbs.length; i++) {
+	    TCB tcb = (TCB) tcbs[i];
+	    if (tcb.javaThread != Thread.currentThread())
+		tcb.interrupt();
+	}
+
+	throw new ThreadDeath();
+    }
+
     private static void authorizeDestroy(KThread thread) {
 	// make sure AutoGrader.finishingThread() gets called only once per
 	// destroy
@@ -363,6 +399,8 @@ public final class TCB {
     
     private static Privilege privilege;
     private static KThread toBeDestroyed = null;
+    /** Set by <tt>stopAll()</tt> when an embedded Nachos terminates. */
+    private static volatile boolean stopping = false;
 
     /**
      * <tt>true</tt> if and only if this TCB is the first TCB to start, the one
@@ -410,5 +448,8 @@ public final class TCB {
 	public void authorizeDestroy(KThread thread) {
 	    TCB.authorizeDestroy(thread);
 	}
+	public void stopAll() {
+	    TCB.stopAll();
+	}
     }
 }
@@ -30,6 +30,13 @@ public final class Timer {
 		public void run() { timerInterrupt(); }
 	    };
 	
+	oneShotInterrupt = new Runnable() {
+		public void run() {
+		    if (oneShotHandler != null)
+			oneShotHandler.run();
+		}
+	    };
+
 	autoGraderInterrupt = new Runnable() {
 		public void run() {
 		    Machine.autoGrader().timerInterrupt(Timer.this.privilege,
@@ -50,6 +57,29 @@ public final class Timer {
 	this.handler = handler;
     }
 
+    /**
+     * Set the callback to use as a one-shot interrupt handler. It is called
+     * at the times requested with <tt>scheduleOneShot()</tt>.
+     *
+     * @param	handler		the one-shot interrupt handler.
+     */
+    public void setOneShotHandler(Runnable handler) {
+	this.oneShotHandler = handler;
+    }
+
+    /**
+     * Schedule a single interrupt at <i>time</i>, in addition to the periodic
+     * timer interrupts, which are not affected. If <i>time</i> has already
+     * passed, the interrupt occurs on the next tick.
+     *
+     * @param	time	the clock tick at which to call the one-shot handler.
+     */
+    public void scheduleOneShot(long time) {
+	long when = Math.max(1, time - getTime());
+
+	privilege.interrupt.schedule(when, "one-shot timer", oneShotInterrupt);
+    }
+
     /**
      * Get the current time.
      *
@@ -59,11 +89,32 @@ public final class Timer {
 	return privilege.stats.totalTicks;
     }
 
+    /**
+     * Get the amount of simulated time spent in kernel mode.
+     *
+     * @return	the number of clock ticks spent in kernel mode since Nachos
+     *		started.
+     */
+    public long getKernelTime() {
+	return privilege.stats.kernelTicks;
+    }
+
+    /**
+     * Get the amount of simulated time spent in user mode.
+     *
+     * @return	the number of clock ticks spent in user mode since Nachos
+     *		started.
+     */
+    public long getUserTime() {
+	return privilege.stats.userTicks;
+    }
+
     private void timerInterrupt() {
 	scheduleInterrupt();
 	scheduleAutoGraderInterrupt();
 
 	lastTimerInterrupt = getTime();
+	Metrics.poll(lastTimerInterrupt);
 
 	if (handler != null)
 	    handler.run();
@@ -83,7 +134,9 @@ public final class Timer {
     private long lastTimerInterrupt;
     private Runnable timerInterrupt;
     private Runnable autoGraderInterrupt;
+    private Runnable oneShotInterrupt;
 
     private Privilege privilege;
     private Runnable handler = null;
+    private Runnable oneShotHandler = null;
 }
@@ -0,0 +1,70 @@
+package nachos.machine;
+
+import java.io.DataInputStream;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Prints a trace file written by <tt>Lib.writeTrace()</tt> as text, one
+ * record per line:
+ *
+ * <p>
+ * <pre>number tick flag event arg1 arg2</pre>
+ *
+ * <p>
+ * Run it outside Nachos, after the simulation has terminated:
+ *
+ * <p>
+ * <pre>java nachos.machine.TraceDecoder nachos.trace</pre>
+ */
+public final class TraceDecoder {
+    /**
+     * Prevent instantiation.
+     */
+    private TraceDecoder() {
+    }
+
+    /**
+     * Decode the trace file named by the first argument.
+     *
+     * @param	args	the command line arguments.
+     */
+    public static void main(String[] args) throws IOException {
+	String fileName = (args.length > 0) ? args[0] : "nachos.trace";
+
+	DataInputStream in = new DataInputStream(
+	    new BufferedInputStream(new FileInputStream(fileName)));
+
+	if (in.readInt() != Lib.traceMagic) {
+	    System.err.println(fileName + " is not a trace file");
+	    System.exit(1);
+	}
+
+	String[] names = new String[in.readInt()];
+	for (int i=0; i<names.length; i++)
+	    names[i] = in.readUTF();
+
+	long first = in.readLong();
+	int count = in.readInt();
+
+	if (first > 0)
+	    System.out.println("# " + first + " older records were overwritten");
+
+	for (int n=0; n<count; n++) {
+	    long tick = in.readLong();
+	    int word = in.readInt();
+	    int arg1 = in.readInt();
+	    int arg2 = in.readInt();
+
+	    char flag = (char) (word >>> 16);
+	    int event = word & 0xFFFF;
+	    String name = (event < names.length) ? names[event] : "#" + event;
+
+	    System.out.println((first+n) + " " + tick + " " + flag + " " +
+			       name + " " + arg1 + " " + arg2);
+	}
+
+	in.close();
+    }
+}
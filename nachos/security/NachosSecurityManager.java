@@ -41,6 +41,26 @@ public class NachosSecurityManager extends SecurityManager {
 	return new PrivilegeProvider();
     }
 
+    /**
+     * Leave this security manager uninstalled and make <tt>exit()</tt> stop
+     * the Nachos threads instead of the JVM, so that more simulations can run
+     * in the same JVM. Used by <tt>Machine.runEmbedded()</tt>.
+     */
+    public void setEmbedded() {
+	Lib.assertTrue(this != System.getSecurityManager());
+
+	embedded = true;
+    }
+
+    /**
+     * Return the status passed to <tt>exit()</tt> by an embedded Nachos.
+     *
+     * @return	the exit status.
+     */
+    public int getExitStatus() {
+	return exitStatus;
+    }
+
     /**
      * Install this security manager.
      */
@@ -70,7 +90,13 @@ public class NachosSecurityManager extends SecurityManager {
 
 	public void exit(int exitStatus) {
 	    invokeExitNotificationHandlers();
-	    NachosSecurityManager.this.exit(exitStatus);
+	    if (embedded) {
+		NachosSecurityManager.this.exitStatus = exitStatus;
+		tcb.stopAll();
+	    }
+	    else {
+		NachosSecurityManager.this.exit(exitStatus);
+	    }
 	}
     }
 
@@ -311,6 +337,8 @@ public class NachosSecurityManager extends SecurityManager {
 
     private File testDirectory;
     private boolean fullySecure;
+    private boolean embedded = false;
+    private int exitStatus = 0;
 
     private Thread privileged = null;
     private int privilegeCount = 0;
@@ -190,5 +190,11 @@ public abstract class Privilege {
 	 * @param	thread	the thread whose TCB is about to be destroyed.
 	 */
 	public void authorizeDestroy(KThread thread);
+	/**
+	 * Stop every TCB, including the current one, without exiting the
+	 * JVM. Used instead of <tt>System.exit()</tt> when Nachos is embedded.
+	 * Never returns.
+	 */
+	public void stopAll();
     }    
 }
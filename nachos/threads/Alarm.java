@@ -2,6 +2,8 @@ package nachos.threads;
 
 import nachos.machine.*;
 
+import java.util.PriorityQueue;
+
 /**
  * Uses the hardware timer to provide preemption, and to allow threads to sleep
  * until a certain time.
@@ -11,6 +13,12 @@ public class Alarm {
      * Allocate a new Alarm. Set the machine's timer interrupt handler to this
      * alarm's callback.
      *
+     * <p>
+     * If <tt>Alarm.highResolution</tt> is <tt>true</tt>, the alarm also
+     * schedules a one-shot timer interrupt for the earliest sleeping thread,
+     * so that threads wake up at their wake time instead of at the first
+     * periodic timer interrupt after it.
+     *
      * <p><b>Note</b>: Nachos will not function correctly with more than one
      * alarm.
      */
@@ -18,16 +26,28 @@ public class Alarm {
 	Machine.timer().setInterruptHandler(new Runnable() {
 		public void run() { timerInterrupt(); }
 	    });
+
+	highResolution = Config.getBoolean("Alarm.highResolution", false);
+	if (highResolution) {
+	    Machine.timer().setOneShotHandler(new Runnable() {
+		    public void run() { oneShotInterrupt(); }
+		});
+	}
     }
 
     /**
      * The timer interrupt handler. This is called by the machine's timer
-     * periodically (approximately every 500 clock ticks). Causes the current
-     * thread to yield, forcing a context switch if there is another thread
-     * that should be run.
+     * periodically (approximately every 500 clock ticks). Wakes up the
+     * sleeping threads that are due, then causes the current thread to
+     * yield, forcing a context switch if there is another thread that should
+     * be run.
+     *
+     * @see	nachos.threads.KThread#preempt
      */
     public void timerInterrupt() {
-	KThread.currentThread().yield();
+	wakeSleepers();
+
+	KThread.preempt();
     }
 
     /**
@@ -45,9 +65,96 @@ public class Alarm {
      * @see	nachos.machine.Timer#getTime()
      */
     public void waitUntil(long x) {
-	// for now, cheat just to get something working (busy waiting is bad)
+	if (x <= 0)
+	    return;
+
+	boolean intStatus = Machine.interrupt().disable();
+
 	long wakeTime = Machine.timer().getTime() + x;
-	while (wakeTime > Machine.timer().getTime())
-	    KThread.yield();
+	sleepQueue.add(new Sleeper(wakeTime, KThread.currentThread()));
+
+	if (highResolution)
+	    scheduleOneShot();
+
+	KThread.sleep();
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * The one-shot interrupt handler, used in high resolution mode. Wakes up
+     * the sleeping threads that are due, without forcing a context switch.
+     */
+    private void oneShotInterrupt() {
+	if (Machine.timer().getTime() >= oneShotTime)
+	    oneShotTime = Long.MAX_VALUE;
+
+	wakeSleepers();
+    }
+
+    //move every sleeper whose wake time has passed to the ready set
+    private void wakeSleepers() {
+	long now = Machine.timer().getTime();
+
+	while (!sleepQueue.isEmpty() &&
+	       ((Sleeper) sleepQueue.peek()).wakeTime <= now) {
+	    ((Sleeper) sleepQueue.poll()).thread.ready();
+	}
+
+	if (highResolution)
+	    scheduleOneShot();
+    }
+
+    //make sure a one-shot interrupt is pending for the earliest sleeper, an
+    //interrupt that is already pending for an earlier time will do
+    private void scheduleOneShot() {
+	if (sleepQueue.isEmpty())
+	    return;
+
+	long next = ((Sleeper) sleepQueue.peek()).wakeTime;
+	if (next < oneShotTime) {
+	    oneShotTime = next;
+	    Machine.timer().scheduleOneShot(next);
+	}
+    }
+
+    /**
+     * A thread waiting in <tt>waitUntil()</tt>, ordered by wake time. Threads
+     * with the same wake time wake in the order they went to sleep.
+     */
+    private static class Sleeper implements Comparable {
+	Sleeper(long wakeTime, KThread thread) {
+	    this.wakeTime = wakeTime;
+	    this.thread = thread;
+	    this.id = numSleepersCreated++;
+	}
+
+	public int compareTo(Object o) {
+	    Sleeper sleeper = (Sleeper) o;
+
+	    if (wakeTime < sleeper.wakeTime)
+		return -1;
+	    else if (wakeTime > sleeper.wakeTime)
+		return 1;
+	    else if (id < sleeper.id)
+		return -1;
+	    else if (id > sleeper.id)
+		return 1;
+	    else
+		return 0;
+	}
+
+	long wakeTime;
+	KThread thread;
+
+	private long id;
+	private static long numSleepersCreated = 0;
     }
+
+    /** Sleeping threads, earliest wake time first. */
+    private PriorityQueue sleepQueue = new PriorityQueue();
+
+    private boolean highResolution;
+    /** The time of the earliest one-shot interrupt pending. */
+    private long oneShotTime = Long.MAX_VALUE;
 }
@@ -0,0 +1,149 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <i>bounded communicator</i> passes 32-bit messages from speakers to
+ * listeners through a buffer of fixed size. Unlike a <tt>Communicator</tt>,
+ * a speaker only waits when the buffer is full, and a listener only waits
+ * when it is empty, so producers and consumers can run ahead of each other
+ * by up to the size of the buffer.
+ *
+ * <p>
+ * Words are received in the order they were sent. The batched
+ * <tt>speak()</tt> and <tt>listen()</tt> move as many words as they can each
+ * time they hold the lock, instead of one word per acquire.
+ */
+public class BoundedCommunicator {
+    /**
+     * Allocate a new bounded communicator.
+     *
+     * @param	capacity	the number of words the buffer holds.
+     */
+    public BoundedCommunicator(int capacity) {
+	Lib.assertTrue(capacity > 0);
+
+	buffer = new int[capacity];
+
+	lock = new Lock("bounded communicator");
+	notFull = new Condition2(lock);
+	notEmpty = new Condition2(lock);
+    }
+
+    /**
+     * Put <i>word</i> in the buffer, waiting until there is room for it.
+     *
+     * @param	word	the integer to transfer.
+     */
+    public void speak(int word) {
+	lock.acquire();
+
+	while (count == buffer.length)
+	    notFull.sleep();
+
+	buffer[(head + count) % buffer.length] = word;
+	count++;
+	notEmpty.wake();
+
+	lock.release();
+    }
+
+    /**
+     * Put <i>length</i> words from <i>words</i>, starting at <i>offset</i>,
+     * in the buffer, waiting for room as needed. Listeners are woken once per
+     * batch instead of once per word.
+     *
+     * @param	words	the array holding the words to transfer.
+     * @param	offset	the index of the first word to transfer.
+     * @param	length	the number of words to transfer.
+     */
+    public void speak(int[] words, int offset, int length) {
+	Lib.assertTrue(offset >= 0 && length >= 0 &&
+		       offset+length <= words.length);
+
+	lock.acquire();
+
+	while (length > 0) {
+	    while (count == buffer.length)
+		notFull.sleep();
+
+	    int amount = Math.min(length, buffer.length - count);
+	    for (int i=0; i<amount; i++)
+		buffer[(head + count + i) % buffer.length] = words[offset+i];
+
+	    count += amount;
+	    offset += amount;
+	    length -= amount;
+	    notEmpty.wakeAll();
+	}
+
+	lock.release();
+    }
+
+    /**
+     * Take the next word from the buffer, waiting until there is one.
+     *
+     * @return	the integer transferred.
+     */
+    public int listen() {
+	lock.acquire();
+
+	while (count == 0)
+	    notEmpty.sleep();
+
+	int word = buffer[head];
+	head = (head + 1) % buffer.length;
+	count--;
+	notFull.wake();
+
+	lock.release();
+
+	return word;
+    }
+
+    /**
+     * Take up to <i>length</i> words from the buffer into <i>words</i>,
+     * starting at <i>offset</i>. Waits until at least one word is available,
+     * then returns what it could take without waiting again.
+     *
+     * @param	words	the array to store the words in.
+     * @param	offset	the index of the first word to store.
+     * @param	length	the maximum number of words to take.
+     * @return	the number of words taken, at least one unless <i>length</i>
+     *		is zero.
+     */
+    public int listen(int[] words, int offset, int length) {
+	Lib.assertTrue(offset >= 0 && length >= 0 &&
+		       offset+length <= words.length);
+
+	if (length == 0)
+	    return 0;
+
+	lock.acquire();
+
+	while (count == 0)
+	    notEmpty.sleep();
+
+	int amount = Math.min(length, count);
+	for (int i=0; i<amount; i++)
+	    words[offset+i] = buffer[(head + i) % buffer.length];
+
+	head = (head + amount) % buffer.length;
+	count -= amount;
+	notFull.wakeAll();
+
+	lock.release();
+
+	return amount;
+    }
+
+    private Lock lock;
+    private Condition2 notFull;
+    private Condition2 notEmpty;
+
+    private int[] buffer;
+    /** Index of the oldest word in the buffer. */
+    private int head = 0;
+    /** Number of words in the buffer. */
+    private int count = 0;
+}
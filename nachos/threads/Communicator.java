@@ -8,12 +8,23 @@ import nachos.machine.*;
  * and multiple threads can be waiting to <i>listen</i>. But there should never
  * be a time when both a speaker and a listener are waiting, because the two
  * threads can be paired off at this point.
+ *
+ * <p>
+ * A speaker puts its word in a single slot and waits until a listener has
+ * taken it. Only one speaker uses the slot at a time, from putting its word
+ * there until it sees it was taken, so every wake-up below
+ * wakes a thread that can make progress, and an exchange never wakes threads
+ * that just go back to sleep.
  */
 public class Communicator {
     /**
      * Allocate a new communicator.
      */
     public Communicator() {
+	lock = new Lock("communicator");
+	speakers = new Condition2(lock);
+	listeners = new Condition2(lock);
+	taken = new Condition2(lock);
     }
 
     /**
@@ -27,6 +38,27 @@ public class Communicator {
      * @param	word	the integer to transfer.
      */
     public void speak(int word) {
+	lock.acquire();
+
+	//wait for the slot
+	while (busy)
+	    speakers.sleep();
+
+	busy = true;
+	this.word = word;
+	full = true;
+	if (numListening > 0)
+	    listeners.wake();
+
+	//wait for a listener to take it
+	while (full)
+	    taken.sleep();
+
+	//let the next speaker in
+	busy = false;
+	speakers.wake();
+
+	lock.release();
     }
 
     /**
@@ -36,6 +68,37 @@ public class Communicator {
      * @return	the integer transferred.
      */    
     public int listen() {
-	return 0;
+	lock.acquire();
+
+	numListening++;
+	while (!full)
+	    listeners.sleep();
+	numListening--;
+
+	int word = this.word;
+	full = false;
+	taken.wake();
+
+	lock.release();
+
+	return word;
     }
+
+    private Lock lock;
+    /** Speakers waiting for the slot to be free. */
+    private Condition2 speakers;
+    /** Listeners waiting for the slot to be full. */
+    private Condition2 listeners;
+    /** The speaker whose word is in the slot, waiting for it to be taken. */
+    private Condition2 taken;
+
+    private int word;
+    /** <tt>true</tt> while the slot holds a word nobody has taken. */
+    private boolean full = false;
+    /**
+     * <tt>true</tt> from when a speaker puts its word in the slot until it
+     * sees that the word was taken.
+     */
+    private boolean busy = false;
+    private int numListening = 0;
 }
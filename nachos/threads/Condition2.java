@@ -7,7 +7,11 @@ import nachos.machine.*;
  * synchronization.
  *
  * <p>
- * You must implement this.
+ * Sleeping threads wait directly on a thread queue, instead of each waiting on
+ * a semaphore of its own, so <tt>sleep()</tt> allocates nothing. The queue
+ * comes from <tt>ThreadedKernel.scheduler</tt>, so <tt>wake()</tt> wakes the
+ * thread the scheduler would run first, taking donated priority into account
+ * if the queue transfers priority.
  *
  * @see	nachos.threads.Condition
  */
@@ -21,7 +25,21 @@ public class Condition2 {
      *				<tt>wake()</tt>, or <tt>wakeAll()</tt>.
      */
     public Condition2(Lock conditionLock) {
+	this(conditionLock, false);
+    }
+
+    /**
+     * Allocate a new condition variable.
+     *
+     * @param	conditionLock	the lock associated with this condition
+     *				variable.
+     * @param	transferPriority	<tt>true</tt> if sleeping threads should
+     *					be woken in order of effective
+     *					priority.
+     */
+    public Condition2(Lock conditionLock, boolean transferPriority) {
 	this.conditionLock = conditionLock;
+	this.waitQueue = ThreadedKernel.newWaitQueue(transferPriority);
     }
 
     /**
@@ -33,9 +51,17 @@ public class Condition2 {
     public void sleep() {
 	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 
+	boolean intStatus = Machine.interrupt().disable();
+
 	conditionLock.release();
 
+	waitQueue.waitForAccess(KThread.currentThread());
+	numWaiting++;
+	KThread.sleep();
+
 	conditionLock.acquire();
+
+	Machine.interrupt().restore(intStatus);
     }
 
     /**
@@ -44,6 +70,16 @@ public class Condition2 {
      */
     public void wake() {
 	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
+
+	if (numWaiting == 0)
+	    return;
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	numWaiting--;
+	waitQueue.nextThread().ready();
+
+	Machine.interrupt().restore(intStatus);
     }
 
     /**
@@ -52,7 +88,20 @@ public class Condition2 {
      */
     public void wakeAll() {
 	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
+
+	if (numWaiting == 0)
+	    return;
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	for (; numWaiting > 0; numWaiting--)
+	    waitQueue.nextThread().ready();
+
+	Machine.interrupt().restore(intStatus);
     }
 
     private Lock conditionLock;
+    private ThreadQueue waitQueue;
+    /** Number of threads sleeping on <tt>waitQueue</tt>. */
+    private int numWaiting = 0;
 }
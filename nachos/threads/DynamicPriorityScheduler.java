@@ -60,7 +60,16 @@ public class DynamicPriorityScheduler extends Scheduler {
      * @return	a new priority thread queue.
      */
     public ThreadQueue newThreadQueue(boolean transferPriority) {
-        return waitQueue = new DThreadPriorityQueue(transferPriority);
+        return waitQueue = new DThreadPriorityQueue(transferPriority, true);
+    }
+
+    /**
+     * Allocate a thread queue for a lock or semaphore. It orders threads the
+     * same way as the ready queue, but the thread it hands the lock or
+     * semaphore to is neither counted as scheduled nor logged.
+     */
+    public ThreadQueue newWaitQueue(boolean transferPriority) {
+        return new DThreadPriorityQueue(transferPriority, false);
     }
 
     public int getPriority(KThread thread) {
@@ -128,11 +137,11 @@ public class DynamicPriorityScheduler extends Scheduler {
                   t.arrival+","+
                   t.running+","+
                   t.waiting+","+
-                  Log.getTimeInMillis());
+                  Log.getTime());
 
         //add to system level stats
         WaitingTime += t.waiting;
-        TurnaroundTime += Log.getTimeInMillis() - t.arrival;
+        TurnaroundTime += Log.getTime() - t.arrival;
         if(t.waiting > maximumWaitingTime)
             maximumWaitingTime = t.waiting;
     }
@@ -178,49 +187,62 @@ public class DynamicPriorityScheduler extends Scheduler {
 
     /**
      * A <tt>ThreadQueue</tt> that sorts threads by priority.
+     *
+     * <p>
+     * While threads wait they all age at the same rate, so the order of their
+     * exact, unrounded priorities never changes. Each thread is therefore kept
+     * sorted by a virtual deadline computed once when it is queued (see
+     * <tt>DThreadState.virtualDeadline()</tt>), and the queue never needs to
+     * be re-aged. The effective priority is rounded and clamped, so threads
+     * close to the first one may tie with it. <tt>nextThread()</tt> looks at
+     * just those, and picks the one queued first.
      */
     class DThreadPriorityQueue extends ThreadQueue {
-        DThreadPriorityQueue(boolean transferPriority) {
+        DThreadPriorityQueue(boolean transferPriority, boolean accounting) {
             this.transferPriority = transferPriority;
+            this.accounting = accounting;
         }
 
         public void waitForAccess(KThread thread) {
             Lib.assertTrue(Machine.interrupt().disabled());
-            insert(thread);
+            //account for the time it was running before computing its key
             DynamicPriorityScheduler.getDThreadState(thread).waitForAccess(this);
+            insert(thread);
         }
 
         public void acquire(KThread thread) {
             Lib.assertTrue(Machine.interrupt().disabled());
-            DynamicPriorityScheduler.getDThreadState(thread).acquire(this);
+            if(accounting)
+                DynamicPriorityScheduler.getDThreadState(thread).acquire(this);
         }
 
-        public KThread nextThread() {//According to policies of Dynamic Thread Scheduling, adjusts age of threads in the waitQueue and returns the thread that is next (lowest CPU time etc; lowest in age)
+        public KThread nextThread() {//According to policies of Dynamic Thread Scheduling, returns the thread that is next (lowest CPU time etc; lowest in age)
             Lib.assertTrue(Machine.interrupt().disabled());
-            
-            if(waitQueue.isEmpty())
-                return null;
 
-            age();
+            KThread temp = removeNextThread();
+            if(temp == null || !accounting)
+                return temp;
 
-            KThread temp = (KThread) waitQueue.poll();
             DThreadState ts = DynamicPriorityScheduler.getDThreadState(temp);
             ts.scheduled();
 
             //write stats about scheduled thread
-            Log.write(Log.getTimeInMillis() + ","+
+            Log.write(Log.getTime() + ","+
                       temp.getName()+","+
                       ts.getEffectivePriority());
 
             return temp;
         }
 
-        public void age(){//implements aging of threads in queue. 
-            Iterator iter = waitQueue.iterator();
-            for( ; iter.hasNext(); ){
-                KThread t = (KThread) iter.next();
-                DynamicPriorityScheduler.getDThreadState(t).age();
-            }
+        public KThread removeNextThread() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            if(waitQueue.isEmpty())
+                return null;
+
+            KThread temp = pickNextThread();
+            remove(temp);
+            return temp;
         }
 
         /**
@@ -234,8 +256,34 @@ public class DynamicPriorityScheduler extends Scheduler {
             if(waitQueue.isEmpty())
                 return null;
 
-            return (KThread) waitQueue.peek();
-            
+            long now = Log.getTime();
+            KThread best = null;
+            int bestPriority = 0;
+            long bestSequence = 0;
+
+            Iterator iter = waitQueue.iterator();
+            while(iter.hasNext()){
+                KThread t = (KThread) iter.next();
+                DThreadState ts = DynamicPriorityScheduler.getDThreadState(t);
+
+                //the effective priority of this and every later thread is
+                //at least floor((deadline - now) / agingTime)
+                if(best != null &&
+                   bestPriority < DynamicPriorityScheduler.priorityMaximum &&
+                   Math.floorDiv(ts.deadline - now,
+                                 DynamicPriorityScheduler.agingTime) > bestPriority)
+                    break;
+
+                int p = ts.queuedPriority(now);
+                if(best == null || p < bestPriority ||
+                   (p == bestPriority && ts.sequence < bestSequence)){
+                    best = t;
+                    bestPriority = p;
+                    bestSequence = ts.sequence;
+                }
+            }
+
+            return best;
         }
 
         public void print() {
@@ -243,15 +291,19 @@ public class DynamicPriorityScheduler extends Scheduler {
             // implement me (if you want)
         }
         
-        //inserts thread into queue
+        //inserts thread into queue keyed by its current virtual deadline
         public void insert(KThread thread){
-            
+            DThreadState ts = DynamicPriorityScheduler.getDThreadState(thread);
+            ts.deadline = ts.virtualDeadline();
+            ts.sequence = numInserted++;
+            ts.waitQueue = this;
             waitQueue.add(thread);
         }
 
         //removes specified thread from the queue
         public void remove(KThread thread){
-            waitQueue.remove(thread);
+            if(waitQueue.remove(thread))
+                DynamicPriorityScheduler.getDThreadState(thread).waitQueue = null;
         }
 
         //returns true if the queue contains the thread
@@ -264,28 +316,36 @@ public class DynamicPriorityScheduler extends Scheduler {
          * threads to the owning thread.
          */
         public boolean transferPriority;
- 
-        //create a PriorityQueue and give it a comparator
-        //if 2 threads have the same priority, the one that has the earliest
-        //arrival time gets priority
-        private PriorityQueue waitQueue = new PriorityQueue(10, new
+        /**
+         * <tt>true</tt> if threads chosen from this queue get the processor,
+         * so each choice counts as a dispatch in the statistics and is logged.
+         * <tt>false</tt> for the wait queues of locks and semaphores, which
+         * only hand the thread the lock or semaphore.
+         */
+        public boolean accounting;
+
+        //sort the threads by virtual deadline, and by the order they were
+        //queued when their deadlines are the same
+        private TreeSet waitQueue = new TreeSet(new
         Comparator<KThread>() {
             public int compare(KThread t1, KThread t2){
                 DThreadState s1, s2;
                 s1 = DynamicPriorityScheduler.getDThreadState(t1);
                 s2 = DynamicPriorityScheduler.getDThreadState(t2);
-                if(s1.getEffectivePriority() < s2.getEffectivePriority())
+                if(s1.deadline < s2.deadline)
                     return -1;
-                else if(s1.getEffectivePriority() > s2.getEffectivePriority())
+                else if(s1.deadline > s2.deadline)
                     return 1;
-                else if(s1.last < s2.last)
+                else if(s1.sequence < s2.sequence)
                     return -1;
-                else if(s1.last > s2.last)
+                else if(s1.sequence > s2.sequence)
                     return 1;
                 else 
                     return 0;
             }
         });
+
+        private long numInserted = 0;
     }
 
     /**
@@ -323,13 +383,23 @@ public class DynamicPriorityScheduler extends Scheduler {
          * @return	the effective priority of the associated thread.
          */
         public int getEffectivePriority() {
+            return effectivePriority(waiting);
+        }
+
+        //the effective priority of a queued thread at time now, as if it had
+        //just been aged
+        int queuedPriority(long now) {
+            return effectivePriority(waiting + now - last);
+        }
+
+        private int effectivePriority(long waiting) {
             //find out how long it has been waiting compared to how long it has
             //run. If it has run for just as long as it has waited, then the
             //priority should be the same as what was set.
             int sum = (int) (waiting - running);
 
-            //divide by the aging time. If a thread has waited for 5ms and the
-            //aging time is 5ms, then its priority increases by one
+            //divide by the aging time. If a thread has waited for 50 ticks and the
+            //aging time is 50 ticks, then its priority increases by one
             int effectivePriority = priority - sum / DynamicPriorityScheduler.agingTime;
 
             //make sure we are still within range
@@ -352,6 +422,12 @@ public class DynamicPriorityScheduler extends Scheduler {
 
             this.priority = priority;
 
+            //the key of a queued thread depends on its priority
+            if(waitQueue != null){
+                DThreadPriorityQueue queue = waitQueue;
+                queue.remove(thread);
+                queue.insert(thread);
+            }
         }
 
         /**
@@ -386,44 +462,55 @@ public class DynamicPriorityScheduler extends Scheduler {
        
         //start the waiting timer 
         public void arrived(){
-            arrival = Log.getTimeInMillis();
+            arrival = Log.getTime();
             last = arrival;   
         }
 
         //add the time it was running before it ended
         public void departed(){
-            long diff = Log.getTimeInMillis() - last;
+            long diff = Log.getTime() - last;
             if(wasRunning){
                 running += diff;
                 wasRunning = false;
-                last = Log.getTimeInMillis();
+                last = Log.getTime();
             }
 
         }
 
         //add the time its been waiting and start run timer
         public void scheduled(){
-            long diff = Log.getTimeInMillis() - last;
+            long diff = Log.getTime() - last;
             wasRunning = true;
             waiting += diff;
-            last = Log.getTimeInMillis();
+            last = Log.getTime();
         }
 
         //update age by making sure that waiting time is current,
         //getEffectivePriority will calculate the rest
         public void age(){
-            long diff = Log.getTimeInMillis() - last;
+            long diff = Log.getTime() - last;
             waiting += diff;
-            last = Log.getTimeInMillis();
+            last = Log.getTime();
+        }
+
+        //While this thread waits, its effective priority at time t is
+        //priority - (waiting - running + t - last)/agingTime, rounded and
+        //clamped. Scaling the unrounded value by agingTime and dropping the t
+        //term, which is the same for every waiting thread, gives a key that
+        //stays fixed while the thread waits and orders threads the same way
+        //their unrounded priorities do.
+        public long virtualDeadline(){
+            return (long) priority * DynamicPriorityScheduler.agingTime
+                - (waiting - running) + last;
         }
 
         //add running time and start wait timer
         public void waiting(){
-            long diff = Log.getTimeInMillis() - last;
+            long diff = Log.getTime() - last;
             if(wasRunning){
                 running += diff;
                 wasRunning = false;
-                last = Log.getTimeInMillis();
+                last = Log.getTime();
             }
         }
 
@@ -436,4 +523,11 @@ public class DynamicPriorityScheduler extends Scheduler {
         public long running = 0;
         public long last = 0;
         private boolean wasRunning = false;
+
+        /** The queue this thread is waiting on, if any. */
+        DThreadPriorityQueue waitQueue = null;
+        /** The virtual deadline this thread was queued with. */
+        long deadline;
+        /** The order in which this thread was queued, to break ties. */
+        long sequence;
     }
@@ -0,0 +1,584 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.TreeSet;
+import java.util.Comparator;
+
+/**
+ * A scheduler that divides the processor fairly by virtual runtime.
+ *
+ * <p>
+ * Every thread keeps a virtual runtime, which advances by the ticks it spends
+ * running scaled by the weight of its priority. Lower priority values carry
+ * more weight, so their virtual runtime advances more slowly and they get a
+ * larger share of the processor. The ready threads are kept in a red-black
+ * tree ordered by virtual runtime, and the thread with the smallest virtual
+ * runtime runs next.
+ *
+ * <p>
+ * A thread that gives up the processor before it has run for
+ * <tt>minGranularity</tt> ticks keeps it, so threads are not switched more
+ * often than is useful. A thread waking up after being blocked (for example
+ * on a <tt>Semaphore</tt> or <tt>Lock</tt>) is placed no further back than
+ * <tt>sleeperCredit</tt> ticks behind the threads already waiting, so it runs
+ * soon without being able to monopolize the processor for the time it slept.
+ *
+ * <p>
+ * The same statistics as <tt>DynamicPriorityScheduler</tt> are written to the
+ * log, so the two can be compared directly.
+ */
+public class FairScheduler extends Scheduler {
+    /**
+     * Allocate a new fair scheduler.
+     */
+    public FairScheduler() {
+
+        //initialize statistics and logging
+        Log.init();
+        totalNumThreads = -1;
+        WaitingTime = 0;
+        TurnaroundTime = 0;
+        maximumWaitingTime = 0;
+
+        //each step down in priority value gives 25% more weight
+        weights = new long[priorityMaximum + 1];
+        for(int p = priorityMinimum; p <= priorityMaximum; p++){
+            weights[p] = Math.max(1, Math.round(defaultWeight *
+                        Math.pow(1.25, priorityDefault - p)));
+        }
+    }
+
+    public void printSystemStats(){
+        Log.write("System,"+totalNumThreads+","+
+                  WaitingTime/totalNumThreads+","+
+                  TurnaroundTime/totalNumThreads+","+
+                  maximumWaitingTime);
+        Log.destroy();
+    }
+
+    /**
+     * Allocate a new fair thread queue.
+     *
+     * @param	transferPriority	<tt>true</tt> if this queue should
+     *					transfer priority from waiting threads
+     *					to the owning thread.
+     * @return	a new fair thread queue.
+     */
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+        return new FairThreadQueue(transferPriority, true);
+    }
+
+    /**
+     * Allocate a thread queue for a lock or semaphore. It orders threads by
+     * virtual runtime like the ready queue, but never charges or places
+     * them, and the thread it hands the lock or semaphore to is neither
+     * counted as scheduled nor logged.
+     */
+    public ThreadQueue newWaitQueue(boolean transferPriority) {
+        return new FairThreadQueue(transferPriority, false);
+    }
+
+    public int getPriority(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        return getFairThreadState(thread).getPriority();
+    }
+
+    public int getEffectivePriority(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        return getFairThreadState(thread).getEffectivePriority();
+    }
+
+    public void setPriority(KThread thread, int priority) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        Lib.assertTrue(priority >= priorityMinimum &&
+                priority <= priorityMaximum);
+
+        getFairThreadState(thread).setPriority(priority);
+    }
+
+    public boolean increasePriority() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        KThread thread = KThread.currentThread();
+
+        int priority = getPriority(thread);
+        if (priority == priorityMinimum){
+            Machine.interrupt().restore(intStatus);
+            return false;
+        }
+
+        setPriority(thread, priority-1);
+
+        Machine.interrupt().restore(intStatus);
+        return true;
+    }
+
+    public boolean decreasePriority() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        KThread thread = KThread.currentThread();
+
+        int priority = getPriority(thread);
+        if (priority == priorityMaximum){
+            Machine.interrupt().restore(intStatus);
+            return false;
+        }
+
+        setPriority(thread, priority+1);
+
+        Machine.interrupt().restore(intStatus);
+        return true;
+    }
+
+    public void threadCreated(KThread thread){//Keeps track of number of threads.
+        totalNumThreads++;
+        getFairThreadState(thread).arrived();
+    }
+
+    public void threadDestroyed(KThread thread){//Writes the stats of the finished thread and adds them to the system level stats.
+        FairThreadState t = getFairThreadState(thread);
+        t.charge();
+        t.departed();
+        Log.write(thread.getName()+","+
+                  t.arrival+","+
+                  t.running+","+
+                  t.waiting+","+
+                  Log.getTime());
+
+        //add to system level stats
+        WaitingTime += t.waiting;
+        TurnaroundTime += Log.getTime() - t.arrival;
+        if(t.waiting > maximumWaitingTime)
+            maximumWaitingTime = t.waiting;
+    }
+
+    /**
+     * Return the weight of the specified priority. A thread's virtual runtime
+     * advances by <tt>defaultWeight / weight</tt> virtual ticks per tick.
+     *
+     * @param	priority	the priority to get the weight of.
+     * @return	the weight of the priority.
+     */
+    public static long getWeight(int priority) {
+        FairScheduler scheduler = (FairScheduler) ThreadedKernel.scheduler;
+
+        if(priority < priorityMinimum)
+            priority = priorityMinimum;
+        else if(priority > priorityMaximum)
+            priority = priorityMaximum;
+
+        return scheduler.weights[priority];
+    }
+
+    /**
+     * The default priority for a new thread.
+     */
+    public static final int priorityDefault = 1;
+    /**
+     * The minimum priority that a thread can have.
+     */
+    public static final int priorityMinimum = 0;
+    /**
+     * The maximum priority that a thread can have.
+     */
+    public static final int priorityMaximum =
+    Integer.parseInt(Config.getString("scheduler.maxPriorityValue"));
+
+    /**
+     * The weight of a thread with the default priority.
+     */
+    public static final long defaultWeight = 1024;
+
+    /**
+     * The number of virtual runtime units in one virtual tick. Virtual
+     * runtime is kept in these finer units so that dividing by large weights
+     * does not round small charges away.
+     */
+    public static final long virtualTick = 1024;
+
+    /**
+     * The number of ticks a thread may run before it has to give up the
+     * processor to a thread with a smaller virtual runtime.
+     */
+    public static final int minGranularity =
+    Config.getInteger("scheduler.minGranularity", 0);
+
+    /**
+     * How far behind the smallest waiting virtual runtime, in ticks, a
+     * thread that wakes up is placed.
+     */
+    public static final int sleeperCredit =
+    Config.getInteger("scheduler.sleeperCredit", Stats.TimerTicks / 2);
+
+    private long[] weights;
+
+    private int totalNumThreads;
+    private long WaitingTime;
+    private long TurnaroundTime;
+    private long maximumWaitingTime;
+
+    /**
+     * Return the scheduling state of the specified thread.
+     *
+     * @param	thread	the thread whose scheduling state to return.
+     * @return	the scheduling state of the specified thread.
+     */
+    public static FairThreadState getFairThreadState(KThread kthread) {
+        if (kthread.schedulingState == null)
+            kthread.schedulingState = new FairThreadState(kthread);
+
+        return (FairThreadState) kthread.schedulingState;
+    }
+}
+
+    /**
+     * A <tt>ThreadQueue</tt> that sorts threads by virtual runtime.
+     */
+    class FairThreadQueue extends ThreadQueue {
+        FairThreadQueue(boolean transferPriority, boolean accounting) {
+            this.transferPriority = transferPriority;
+            this.accounting = accounting;
+        }
+
+        public void waitForAccess(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+            FairThreadState ts = FairScheduler.getFairThreadState(thread);
+
+            //only the ready queue moves virtual runtimes, a lock or semaphore
+            //just orders its waiters by the ones they have. A thread blocking
+            //here is charged for its run first, so its key is final before
+            //it goes in the tree
+            if(!accounting){
+                if(thread == KThread.currentThread())
+                    ts.charge();
+                ts.waitForAccess(this);
+                ts.sequence = numInserted++;
+                ts.waitQueue = this;
+                waitQueue.add(thread);
+                return;
+            }
+
+            if(thread == KThread.currentThread()){
+                //it has been running up to now
+                ts.charge();
+            }
+            else if(!ts.placed){
+                //a new thread starts level with the threads already waiting
+                if(ts.vruntime < minVruntime)
+                    ts.vruntime = minVruntime;
+            }
+            else{
+                //a woken thread gets a limited credit for the time it slept
+                long credit = (long) FairScheduler.sleeperCredit *
+                    FairScheduler.virtualTick;
+                if(ts.vruntime < minVruntime - credit)
+                    ts.vruntime = minVruntime - credit;
+            }
+            ts.placed = true;
+
+            ts.waitForAccess(this);
+            ts.sequence = numInserted++;
+            ts.waitQueue = this;
+            waitQueue.add(thread);
+        }
+
+        public void acquire(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+            if(accounting)
+                FairScheduler.getFairThreadState(thread).acquire(this);
+        }
+
+        public KThread nextThread() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            if(!accounting)
+                return removeNextThread();
+
+            //the caller has been running up to now
+            FairScheduler.getFairThreadState(KThread.currentThread()).charge();
+
+            if(waitQueue.isEmpty())
+                return null;
+
+            //a thread that gave up the processor before its minimum
+            //granularity was up gets it back
+            KThread temp = KThread.currentThread();
+            FairThreadState ts = FairScheduler.getFairThreadState(temp);
+            boolean keep = ts.waitQueue == this &&
+                Machine.timer().getTime() - ts.sliceStart <
+                FairScheduler.minGranularity;
+
+            if(keep){
+                waitQueue.remove(temp);
+            }
+            else{
+                temp = (KThread) waitQueue.pollFirst();
+                ts = FairScheduler.getFairThreadState(temp);
+                ts.sliceStart = Machine.timer().getTime();
+            }
+
+            ts.waitQueue = null;
+            ts.donated = transferPriority;
+
+            //virtual runtimes of the threads left behind never move backwards
+            if(ts.vruntime > minVruntime)
+                minVruntime = ts.vruntime;
+
+            ts.scheduled();
+
+            //write stats about scheduled thread
+            Log.write(Log.getTime() + ","+
+                      temp.getName()+","+
+                      (transferPriority ? ts.getEffectivePriority() :
+                       ts.getPriority()));
+
+            return temp;
+        }
+
+        //takes the smallest virtual runtime, leaving the caller uncharged
+        //and the slice of the thread taken as it was
+        public KThread removeNextThread() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            KThread temp = (KThread) waitQueue.pollFirst();
+            if(temp != null)
+                FairScheduler.getFairThreadState(temp).waitQueue = null;
+
+            return temp;
+        }
+
+        /**
+         * Return the next thread that <tt>nextThread()</tt> would return,
+         * without modifying the state of this queue.
+         *
+         * @return	the next thread that <tt>nextThread()</tt> would
+         *		return.
+         */
+        protected KThread pickNextThread() {
+            if(waitQueue.isEmpty())
+                return null;
+
+            return (KThread) waitQueue.first();
+        }
+
+        public void print() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+            // implement me (if you want)
+        }
+
+        //removes a thread so that its key can change, see reinsert
+        void remove(KThread thread){
+            waitQueue.remove(thread);
+        }
+
+        void reinsert(KThread thread){
+            waitQueue.add(thread);
+        }
+
+        /**
+         * <tt>true</tt> if this queue should transfer priority from waiting
+         * threads to the owning thread.
+         */
+        public boolean transferPriority;
+        /**
+         * <tt>true</tt> if threads chosen from this queue get the processor,
+         * so virtual runtimes are charged and placed here, and each choice
+         * counts as a dispatch in the statistics and is logged.
+         * <tt>false</tt> for the wait queues of locks and semaphores, which
+         * only hand the thread the lock or semaphore.
+         */
+        public boolean accounting;
+
+        private long minVruntime = 0;
+        private long numInserted = 0;
+
+        //smallest virtual runtime first, if 2 threads have the same virtual
+        //runtime, the one that was queued first gets priority
+        private TreeSet waitQueue = new TreeSet(new
+        Comparator<KThread>() {
+            public int compare(KThread t1, KThread t2){
+                FairThreadState s1, s2;
+                s1 = FairScheduler.getFairThreadState(t1);
+                s2 = FairScheduler.getFairThreadState(t2);
+                if(s1.vruntime < s2.vruntime)
+                    return -1;
+                else if(s1.vruntime > s2.vruntime)
+                    return 1;
+                else if(s1.sequence < s2.sequence)
+                    return -1;
+                else if(s1.sequence > s2.sequence)
+                    return 1;
+                else
+                    return 0;
+            }
+        });
+    }
+
+    /**
+     * The scheduling state of a thread. This includes the thread's priority
+     * and virtual runtime, and the statistics kept for the log.
+     *
+     * @see	nachos.threads.KThread#schedulingState
+     */
+    class FairThreadState {
+        /**
+         * Allocate a new <tt>FairThreadState</tt> object and associate it
+         * with the specified thread.
+         *
+         * @param	thread	the thread this state belongs to.
+         */
+        public FairThreadState(KThread thread) {
+            this.thread = thread;
+
+            priority = FairScheduler.priorityDefault;
+            runStart = Machine.timer().getTime();
+            sliceStart = runStart;
+        }
+
+        /**
+         * Return the priority of the associated thread.
+         *
+         * @return	the priority of the associated thread.
+         */
+        public int getPriority() {
+            return priority;
+        }
+
+        /**
+         * Return the effective priority of the associated thread.
+         *
+         * @return	the effective priority of the associated thread.
+         */
+        public int getEffectivePriority() {
+            return thread.getMin();
+        }
+
+        /**
+         * Set the priority of the associated thread to the specified value.
+         *
+         * @param	priority	the new priority.
+         */
+        public void setPriority(int priority) {
+            if (this.priority == priority)
+                return;
+
+            this.priority = priority;
+            thread.resetPriority();
+        }
+
+        /**
+         * Advance the virtual runtime of the associated thread by the ticks
+         * since it was last charged, scaled by the weight of its priority.
+         * Only meaningful while the associated thread is the current thread.
+         */
+        public void charge() {
+            long now = Machine.timer().getTime();
+            long delta = now - runStart;
+            runStart = now;
+
+            if(delta <= 0)
+                return;
+
+            long weight = FairScheduler.getWeight(donated ?
+                    getEffectivePriority() : getPriority());
+
+            //the key of a queued thread must not change under the tree
+            FairThreadQueue queue = waitQueue;
+            if(queue != null)
+                queue.remove(thread);
+
+            vruntime += delta * FairScheduler.defaultWeight *
+                FairScheduler.virtualTick / weight;
+
+            if(queue != null)
+                queue.reinsert(thread);
+        }
+
+        /**
+         * Called when <tt>waitForAccess(thread)</tt> (where <tt>thread</tt> is
+         * the associated thread) is invoked on the specified queue.
+         *
+         * @param	waitQueue	the queue that the associated thread is
+         *				now waiting on.
+         *
+         * @see	nachos.threads.ThreadQueue#waitForAccess
+         */
+        public void waitForAccess(FairThreadQueue waitQueue) {
+            waiting();
+        }
+
+        /**
+         * Called when the associated thread has acquired access to whatever is
+         * guarded by <tt>waitQueue</tt>.
+         *
+         * @see	nachos.threads.ThreadQueue#acquire
+         * @see	nachos.threads.ThreadQueue#nextThread
+         */
+        public void acquire(FairThreadQueue waitQueue) {
+            charge();
+            scheduled();
+        }
+
+        //start the waiting timer
+        public void arrived(){
+            arrival = Log.getTime();
+            last = arrival;
+        }
+
+        //add the time it was running before it ended
+        public void departed(){
+            long diff = Log.getTime() - last;
+            if(wasRunning){
+                running += diff;
+                wasRunning = false;
+                last = Log.getTime();
+            }
+        }
+
+        //add the time its been waiting and start run timer
+        public void scheduled(){
+            long diff = Log.getTime() - last;
+            wasRunning = true;
+            waiting += diff;
+            last = Log.getTime();
+            runStart = Machine.timer().getTime();
+        }
+
+        //add running time and start wait timer
+        public void waiting(){
+            long diff = Log.getTime() - last;
+            if(wasRunning){
+                running += diff;
+                wasRunning = false;
+                last = Log.getTime();
+            }
+        }
+
+        /** The thread with which this object is associated. */
+        protected KThread thread;
+        /** The priority of the associated thread. */
+        protected int priority;
+        /** The weighted run time of the associated thread. */
+        long vruntime = 0;
+        /** The tick up to which the associated thread has been charged. */
+        long runStart;
+        /** The tick at which the associated thread was last chosen. */
+        long sliceStart;
+        /** <tt>true</tt> if it was chosen from a queue that donates. */
+        boolean donated = false;
+        /** <tt>true</tt> once the thread has been placed in a queue. */
+        boolean placed = false;
+        /** The queue this thread is waiting on, if any. */
+        FairThreadQueue waitQueue = null;
+        /** The order in which this thread was queued, to break ties. */
+        long sequence;
+        public long arrival = 0;
+        public long waiting = 0;
+        public long running = 0;
+        public long last = 0;
+        private boolean wasRunning = false;
+    }
@@ -3,6 +3,8 @@ package nachos.threads;
 import nachos.machine.*;
 import nachos.threads.test.*;
 
+import java.util.Vector;
+
 /**
  * A KThread is a thread that can be used to execute Nachos kernel code. Nachos
  * allows multiple threads to run concurrently.
@@ -27,10 +29,20 @@ import nachos.threads.test.*;
  * PiRun p = new PiRun();
  * new KThread(p).fork();
  * </pre></blockquote>
+ *
+ * <p>
+ * If <tt>Machine.numProcessors</tt> is more than 1, every processor runs a
+ * thread of its own and has its own idle thread and ready queue. A thread is
+ * readied on the processor it last ran on, or the one set with
+ * <tt>setAffinity()</tt>, and a processor whose queue is empty steals from
+ * the longest queue. The processors take turns executing: the timer interrupt
+ * moves on to the next processor, and an idle processor hands over to one
+ * that has work.
  */
 public class KThread extends ResourceNode{
     /**
-     * Get the current thread.
+     * Get the current thread, the thread running on the processor that is
+     * executing.
      *
      * @return	the current thread.
      */
@@ -51,9 +63,22 @@ public class KThread extends ResourceNode{
 	else {
         boolean donate =
             Boolean.parseBoolean(Config.getString("Locks.usePriorityDonation"));
-	    readyQueue = ThreadedKernel.scheduler.newThreadQueue(donate);
-	    readyQueue.acquire(this);	    
+	    int numProcessors = Machine.numProcessors();
+	    readyQueues = new ThreadQueue[numProcessors];
+	    numReady = new Metrics.Gauge[numProcessors];
+	    numDispatched = new Metrics.Counter[numProcessors];
+	    numStolen = new Metrics.Counter[numProcessors];
+	    for (int i=0; i<numProcessors; i++) {
+		readyQueues[i] = ThreadedKernel.scheduler.newThreadQueue(donate);
+		numReady[i] = Metrics.gauge("runqueue." + i + ".length");
+		numDispatched[i] = Metrics.counter("runqueue." + i + ".dispatches");
+		numStolen[i] = Metrics.counter("runqueue." + i + ".steals");
+	    }
+	    readyQueues[0].acquire(this);	    
 
+	    runningThreads = new KThread[numProcessors];
+	    runningThreads[0] = this;
+	    kicked = new boolean[numProcessors];
 	    currentThread = this;
 	    tcb = TCB.currentTCB();
 	    name = "main";
@@ -132,6 +157,46 @@ public class KThread extends ResourceNode{
 	return (name + " (#" + id + ")");
     }
 
+    /**
+     * Set the processor this thread should be readied on. This is only a
+     * hint, another processor may still steal the thread.
+     *
+     * @param	processor	the number of the processor, or -1 to use the
+     *				processor the thread last ran on.
+     * @return	this thread.
+     */
+    public KThread setAffinity(int processor) {
+	Lib.assertTrue(processor >= -1 && processor < Machine.numProcessors());
+
+	affinity = processor;
+	return this;
+    }
+
+    /**
+     * Get the simulated time this thread has spent running in user mode,
+     * including the current run if this is the current thread.
+     *
+     * @return	the number of user ticks charged to this thread.
+     */
+    public long getUserTicks() {
+	if (this == currentThread)
+	    return userTicks + Machine.timer().getUserTime() - switchUserTicks;
+	return userTicks;
+    }
+
+    /**
+     * Get the simulated time this thread has spent running in kernel mode,
+     * including the current run if this is the current thread.
+     *
+     * @return	the number of kernel ticks charged to this thread.
+     */
+    public long getKernelTicks() {
+	if (this == currentThread)
+	    return kernelTicks + Machine.timer().getKernelTime()
+		- switchKernelTicks;
+	return kernelTicks;
+    }
+
     /**
      * Deterministically and consistently compare this thread to another
      * thread.
@@ -157,8 +222,10 @@ public class KThread extends ResourceNode{
 	Lib.assertTrue(status == statusNew);
 	Lib.assertTrue(target != null);
 	
-	Lib.debug(dbgThread,
-		  "Forking thread: " + toString() + " Runnable: " + target);
+	Lib.debug(dbgThread, "Forking thread: ", this, " Runnable: ", target);
+	Lib.trace(dbgThread, traceFork, id, 0);
+	if (EventLog.enabled())
+	    EventLog.write(EventLog.eventFork, id, EventLog.name(name), 0);
 
 	boolean intStatus = Machine.interrupt().disable();
 
@@ -173,6 +240,20 @@ public class KThread extends ResourceNode{
 	Machine.interrupt().restore(intStatus);
     }
 
+    /**
+     * Start this idle thread on a processor other than the first. It starts
+     * running the first time the processor executes.
+     */
+    private void startOn(int processor) {
+	tcb.start(new Runnable() {
+		public void run() {
+		    runThread();
+		}
+	    });
+
+	runningThreads[processor] = this;
+    }
+
     private void runThread() {
 	begin();
 	target.run();
@@ -180,7 +261,7 @@ public class KThread extends ResourceNode{
     }
 
     private void begin() {
-	Lib.debug(dbgThread, "Beginning thread: " + toString());
+	Lib.debug(dbgThread, "Beginning thread: ", this);
 	
 	Lib.assertTrue(this == currentThread);
 
@@ -200,7 +281,10 @@ public class KThread extends ResourceNode{
      * delete this thread.
      */
     public static void finish() {
-	Lib.debug(dbgThread, "Finishing thread: " + currentThread.toString());
+	Lib.debug(dbgThread, "Finishing thread: ", currentThread);
+	Lib.trace(dbgThread, traceFinish, currentThread.id, 0);
+	if (EventLog.enabled())
+	    EventLog.write(EventLog.eventFinish, currentThread.id, 0, 0);
 	
 	Machine.interrupt().disable();
 
@@ -225,7 +309,7 @@ public class KThread extends ResourceNode{
      * <p>
      * Returns immediately if no other thread is ready to run. Otherwise
      * returns when the current thread is chosen to run again by
-     * <tt>readyQueue.nextThread()</tt>.
+     * <tt>nextThread()</tt> on a ready queue.
      *
      * <p>
      * Interrupts are disabled, so that the current thread can atomically add
@@ -234,7 +318,8 @@ public class KThread extends ResourceNode{
      * called with interrupts disabled.
      */
     public static void yield() {
-	Lib.debug(dbgThread, "Yielding thread: " + currentThread.toString());
+	Lib.debug(dbgThread, "Yielding thread: ", currentThread);
+	Lib.trace(dbgThread, traceYield, currentThread.id, 0);
 	
 	Lib.assertTrue(currentThread.status == statusRunning);
 	
@@ -259,12 +344,17 @@ public class KThread extends ResourceNode{
      * scheduled this thread to be destroyed by the next thread to run.
      */
     public static void sleep() {
-	Lib.debug(dbgThread, "Sleeping thread: " + currentThread.toString());
+	Lib.debug(dbgThread, "Sleeping thread: ", currentThread);
+	Lib.trace(dbgThread, traceSleep, currentThread.id, 0);
 	
 	Lib.assertTrue(Machine.interrupt().disabled());
+	Lib.assertTrue(currentThread.spinLocksHeld == 0);
 
-	if (currentThread.status != statusFinished)
+	if (currentThread.status != statusFinished) {
 	    currentThread.status = statusBlocked;
+	    if (EventLog.enabled())
+		EventLog.write(EventLog.eventBlock, currentThread.id, 0, 0);
+	}
 
 	runNextThread();
     }
@@ -274,18 +364,67 @@ public class KThread extends ResourceNode{
      * ready queue.
      */
     public void ready() {
-	Lib.debug(dbgThread, "Ready thread: " + toString());
+	Lib.debug(dbgThread, "Ready thread: ", this);
+	Lib.trace(dbgThread, traceReady, id, 0);
 	
 	Lib.assertTrue(Machine.interrupt().disabled());
 	Lib.assertTrue(status != statusReady);
 	
 	status = statusReady;
-	if (this != idleThread)
-	    readyQueue.waitForAccess(this);
+	readyTime = Machine.timer().getTime();
+	if (!isIdleThread) {
+	    // a new thread starts on the processor that forked it
+	    int processor = affinity;
+	    if (processor == -1)
+		processor = (lastProcessor == -1) ?
+		    Machine.currentProcessor() : lastProcessor;
+
+	    readyQueues[processor].waitForAccess(this);
+	    numReady[processor].add(1);
+	    readySinceIdle = true;
+
+	    if (runningThreads.length > 1)
+		kickIdleProcessor();
+	}
 	
 	Machine.autoGrader().readyThread(this);
     }
 
+    /**
+     * Called by the timer interrupt handler. If there is more than one
+     * processor, moves on to the next one, and when this processor gets its
+     * turn again, balances the ready queues and yields the current thread
+     * unless it holds a spinlock.
+     */
+    public static void preempt() {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	if (runningThreads.length > 1) {
+	    switchProcessor((Machine.currentProcessor() + 1) %
+			    runningThreads.length);
+	    balance(Machine.currentProcessor());
+	}
+
+	if (currentThread.spinLocksHeld == 0)
+	    KThread.yield();
+    }
+
+    /**
+     * Called by a thread spinning on a lock held on another processor. That
+     * processor executes until it next hands over, since on real hardware it
+     * would be running while this one spins.
+     *
+     * @param	processor	the processor of the thread holding the lock.
+     */
+    static void spinOn(int processor) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	Lib.assertTrue(processor != Machine.currentProcessor());
+	switchProcessor(processor);
+
+	Machine.interrupt().restore(intStatus);
+    }
+
     /**
      * Waits for this thread to finish. If this thread is already finished,
      * return immediately. This method must only be called once; the second
@@ -293,7 +432,7 @@ public class KThread extends ResourceNode{
      * thread.
      */
     public void join() {
-	Lib.debug(dbgThread, "Joining to thread: " + toString());
+	Lib.debug(dbgThread, "Joining to thread: ", this);
 
 	Lib.assertTrue(this != currentThread);
 
@@ -307,18 +446,124 @@ public class KThread extends ResourceNode{
      *
      * <p>
      * Note that <tt>ready()</tt> never adds the idle thread to the ready set.
+     *
+     * <p>
+     * Unless <tt>KThread.fastForwardIdle</tt> is <tt>false</tt>, the idle
+     * thread skips the simulated time until the next pending interrupt
+     * instead of spinning through it one kernel tick at a time.
      */
     private static void createIdleThread() {
 	Lib.assertTrue(idleThread == null);
-	
-	idleThread = new KThread(new Runnable() {
-	    public void run() { while (true) yield(); }
-	});
-	idleThread.setName("idle");
+
+	final boolean fastForward =
+	    Config.getBoolean("KThread.fastForwardIdle", true);
+
+	Runnable idle = new Runnable() {
+	    public void run() {
+		while (true) {
+		    // an interrupt may have readied a thread since the idle
+		    // thread was chosen, time must not skip past it
+		    boolean intStatus = Machine.interrupt().disable();
+		    if (!readySinceIdle) {
+			int busy = findBusyProcessor();
+			if (busy != -1)
+			    switchProcessor(busy);
+			else if (fastForward)
+			    Machine.interrupt().idle();
+		    }
+		    Machine.interrupt().restore(intStatus);
+
+		    KThread.yield();
+		}
+	    }
+	};
+
+	idleThreads = new KThread[runningThreads.length];
+	for (int i=0; i<idleThreads.length; i++) {
+	    idleThreads[i] = new KThread(idle);
+	    idleThreads[i].setName(i == 0 ? "idle" : "idle" + i);
+	    idleThreads[i].isIdleThread = true;
+	}
+	idleThread = idleThreads[0];
 
 	Machine.autoGrader().setIdleThread(idleThread);
 	
 	idleThread.fork();
+	for (int i=1; i<idleThreads.length; i++)
+	    idleThreads[i].startOn(i);
+    }
+
+    /**
+     * Return the next processor after the executing one that is not running
+     * its idle thread.
+     *
+     * @return	the number of a busy processor, or -1 if every other
+     *		processor is idle.
+     */
+    private static int findBusyProcessor() {
+	int current = Machine.currentProcessor();
+
+	for (int i=1; i<runningThreads.length; i++) {
+	    int next = (current + i) % runningThreads.length;
+	    if (!runningThreads[next].isIdleThread)
+		return next;
+	}
+
+	return -1;
+    }
+
+    /**
+     * Send an IPI to a processor running its idle thread, if it has not been
+     * sent one already, so that it picks up the thread just readied.
+     */
+    private static void kickIdleProcessor() {
+	for (int i=0; i<runningThreads.length; i++) {
+	    if (runningThreads[i].isIdleThread && !kicked[i] &&
+		i != Machine.currentProcessor()) {
+		kicked[i] = true;
+		Machine.interrupt().sendIPI(i, reschedule);
+		return;
+	    }
+	}
+    }
+
+    //the IPI handler, run on the processor that was kicked
+    private static Runnable reschedule = new Runnable() {
+	    public void run() {
+		kicked[Machine.currentProcessor()] = false;
+		if (currentThread.isIdleThread)
+		    KThread.yield();
+	    }
+	};
+
+    /**
+     * Switch to the thread running on another processor, and make that
+     * processor the one that executes. The current thread stays running on
+     * its processor, and returns from here when another processor switches
+     * back to it.
+     *
+     * @param	processor	the processor to switch to.
+     */
+    private static void switchProcessor(int processor) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	if (processor == Machine.currentProcessor())
+	    return;
+
+	KThread next = runningThreads[processor];
+
+	chargeCurrentThread();
+
+	Lib.debug(dbgThread, "Switching to processor ", processor, ": ", next);
+	numProcessorSwitches.increment();
+
+	Machine.setCurrentProcessor(processor);
+	currentThread = next;
+
+	next.tcb.contextSwitch();
+
+	// another processor has switched back to this one
+	Machine.autoGrader().runningThread(currentThread);
     }
     
     /**
@@ -326,13 +571,128 @@ public class KThread extends ResourceNode{
      * using <tt>run()</tt>.
      */
     private static void runNextThread() {
-	KThread nextThread = readyQueue.nextThread();
-	if (nextThread == null)
-	    nextThread = idleThread;
+	int processor = Machine.currentProcessor();
+
+	KThread nextThread = readyQueues[processor].nextThread();
+	if (nextThread != null)
+	    numReady[processor].add(-1);
+	else if (readyQueues.length > 1)
+	    nextThread = steal(processor);
+
+	if (nextThread == null) {
+	    nextThread = idleThreads[Machine.currentProcessor()];
+	    readySinceIdle = false;
+	}
 
 	nextThread.run();
     }
 
+    /**
+     * Take the next thread from the longest ready queue of another processor.
+     *
+     * @param	processor	the processor that is stealing.
+     * @return	the stolen thread, or <tt>null</tt> if no other processor
+     *		has a thread ready.
+     */
+    private static KThread steal(int processor) {
+	int busiest = -1;
+	for (int i=0; i<readyQueues.length; i++) {
+	    if (i != processor && numReady[i].get() > 0 &&
+		(busiest == -1 || numReady[i].get() > numReady[busiest].get()))
+		busiest = i;
+	}
+
+	if (busiest == -1)
+	    return null;
+
+	KThread thread = readyQueues[busiest].removeNextThread();
+	Lib.assertTrue(thread != null);
+	numReady[busiest].add(-1);
+	numStolen[processor].increment();
+
+	Lib.debug(dbgThread, "Processor ", processor, " stole: ", thread);
+
+	//dispatch it from this processor's queue, which is empty, so that it
+	//is accounted for by the queue it runs from
+	readyQueues[processor].waitForAccess(thread);
+	thread = readyQueues[processor].nextThread();
+	Lib.assertTrue(thread != null);
+	return thread;
+    }
+
+    /**
+     * Move a thread to the ready queue of the specified processor from the
+     * longest queue, if that is at least two threads longer. Stealing only
+     * when a queue is empty is not enough, since a processor that keeps
+     * readying its own thread never finds its queue empty.
+     *
+     * @param	processor	the processor that is balancing.
+     */
+    private static void balance(int processor) {
+	int busiest = processor;
+	for (int i=0; i<readyQueues.length; i++) {
+	    if (numReady[i].get() > numReady[busiest].get())
+		busiest = i;
+	}
+
+	if (numReady[busiest].get() < numReady[processor].get() + 2)
+	    return;
+
+	KThread thread = readyQueues[busiest].removeNextThread();
+	numReady[busiest].add(-1);
+	readyQueues[processor].waitForAccess(thread);
+	numReady[processor].add(1);
+	numStolen[processor].increment();
+
+	Lib.debug(dbgThread, "Processor ", processor, " pulled: ", thread);
+    }
+
+    /**
+     * Print how the threads were spread over the processors: the number of
+     * threads each one dispatched, how many of those it stole, and the
+     * longest its ready queue got.
+     */
+    public static void printProcessorStats() {
+	for (int i=0; i<readyQueues.length; i++) {
+	    System.out.println("Processor " + i + ": dispatches "
+			       + numDispatched[i].get()
+			       + ", steals " + numStolen[i].get()
+			       + ", longest queue " + numReady[i].getPeak());
+	}
+	System.out.println("Migrations: " + numMigrations.get());
+    }
+
+    /**
+     * Return the threads ready to run on the current processor, in the order
+     * they will be dispatched. Interrupts must be disabled.
+     *
+     * @return	the ready threads, first to run first.
+     */
+    public static KThread[] getReadyThreads() {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	ThreadQueue queue = readyQueues[Machine.currentProcessor()];
+	Vector threads = new Vector();
+	for (KThread thread; (thread = queue.removeNextThread()) != null; )
+	    threads.add(thread);
+
+	//put them back in the same order, so they still run in that order
+	for (int i=0; i<threads.size(); i++)
+	    queue.waitForAccess((KThread) threads.get(i));
+
+	return (KThread[]) threads.toArray(new KThread[threads.size()]);
+    }
+
+    //charge the current thread for the ticks since it was switched in
+    private static void chargeCurrentThread() {
+	long user = Machine.timer().getUserTime();
+	long kernel = Machine.timer().getKernelTime();
+	currentThread.userTicks += user - switchUserTicks;
+	currentThread.kernelTicks += kernel - switchKernelTicks;
+	switchUserTicks = user;
+	switchKernelTicks = kernel;
+    }
+
     /**
      * Dispatch the CPU to this thread. Save the state of the current thread,
      * switch to the new thread by calling <tt>TCB.contextSwitch()</tt>, and
@@ -358,12 +718,28 @@ public class KThread extends ResourceNode{
 
 	Machine.yield();
 
+	chargeCurrentThread();
+
 	currentThread.saveState();
 
-	Lib.debug(dbgThread, "Switching from: " + currentThread.toString()
-		  + " to: " + toString());
+	Lib.debug(dbgThread, "Switching from: ", currentThread, " to: ", this);
+	Lib.trace(dbgThread, traceSwitch, currentThread.id, id);
+	if (EventLog.enabled())
+	    EventLog.write(EventLog.eventRun, id, currentThread.id, 0);
+
+	numSwitches.increment();
+	if (status == statusReady)
+	    switchLatency.record(Machine.timer().getTime() - readyTime);
 
+	int processor = Machine.currentProcessor();
 	currentThread = this;
+	runningThreads[processor] = this;
+	if (!isIdleThread) {
+	    numDispatched[processor].increment();
+	    if (lastProcessor != -1 && lastProcessor != processor)
+		numMigrations.increment();
+	    lastProcessor = processor;
+	}
 
 	tcb.contextSwitch();
 
@@ -375,7 +751,7 @@ public class KThread extends ResourceNode{
      * <tt>statusRunning</tt> and check <tt>toBeDestroyed</tt>.
      */
     protected void restoreState() {
-	Lib.debug(dbgThread, "Running thread: " + currentThread.toString());
+	Lib.debug(dbgThread, "Running thread: ", currentThread);
 	
 	Lib.assertTrue(Machine.interrupt().disabled());
 	Lib.assertTrue(this == currentThread);
@@ -443,9 +819,29 @@ public class KThread extends ResourceNode{
         return i;
     }
 
+    protected int getMyDonation(){
+        boolean intStatus = Machine.interrupt().disable();
+        int i = ThreadedKernel.scheduler.getPriority(this);
+        Machine.interrupt().restore(intStatus);
+        return i;
+    }
+
+    protected void donationChanged(){
+        boolean intStatus = Machine.interrupt().disable();
+        ThreadedKernel.scheduler.donationChanged(this);
+        Machine.interrupt().restore(intStatus);
+    }
+
 
     private static final char dbgThread = 't';
 
+    private static final int traceFork = Lib.traceEvent("fork");
+    private static final int traceFinish = Lib.traceEvent("finish");
+    private static final int traceYield = Lib.traceEvent("yield");
+    private static final int traceSleep = Lib.traceEvent("sleep");
+    private static final int traceReady = Lib.traceEvent("ready");
+    private static final int traceSwitch = Lib.traceEvent("switch");
+
     /**
      * Additional state used by schedulers.
      *
@@ -468,6 +864,18 @@ public class KThread extends ResourceNode{
     private String name = "(unnamed thread)";
     private Runnable target;
     private TCB tcb;
+    /** <tt>true</tt> if this is the idle thread of a processor. */
+    private boolean isIdleThread = false;
+    /** The processor this thread last ran on, or -1 if it has not run. */
+    private int lastProcessor = -1;
+    /** The processor to ready this thread on, or -1 for the last one. */
+    private int affinity = -1;
+    /** The number of spinlocks this thread holds. */
+    int spinLocksHeld = 0;
+    /** Simulated time charged to this thread, up to its last switch out. */
+    private long userTicks = 0, kernelTicks = 0;
+    /** When this thread was last put on the ready queue. */
+    private long readyTime = 0;
 
     /**
      * Unique identifer for this thread. Used to deterministically compare
@@ -477,8 +885,32 @@ public class KThread extends ResourceNode{
     /** Number of times the KThread constructor was called. */
     private static int numCreated = 0;
 
-    private static ThreadQueue readyQueue = null;
+    /** The ready queue of each processor. */
+    private static ThreadQueue[] readyQueues = null;
+    /** The number of threads on each ready queue. */
+    private static Metrics.Gauge[] numReady = null;
+    private static Metrics.Counter[] numDispatched = null;
+    private static Metrics.Counter[] numStolen = null;
+    /** Dispatches on a different processor than the thread last ran on. */
+    private static Metrics.Counter numMigrations =
+	Metrics.counter("runqueue.migrations");
     private static KThread currentThread = null;
     private static KThread toBeDestroyed = null;
     private static KThread idleThread = null;
+    /** The thread running on each processor, including idle threads. */
+    private static KThread[] runningThreads = null;
+    private static KThread[] idleThreads = null;
+    /** <tt>true</tt> if a processor has been sent a reschedule IPI. */
+    private static boolean[] kicked = null;
+    /** <tt>true</tt> if a thread was readied since the idle thread was chosen. */
+    private static boolean readySinceIdle = false;
+    private static Metrics.Counter numSwitches =
+	Metrics.counter("thread.switches");
+    /** Ticks from <tt>ready()</tt> until a thread gets the CPU. */
+    private static Histogram switchLatency =
+	Metrics.histogram("thread.switchLatency");
+    private static Metrics.Counter numProcessorSwitches =
+	Metrics.counter("processor.switches");
+    /** Machine user and kernel time at the last context switch. */
+    private static long switchUserTicks = 0, switchKernelTicks = 0;
 }
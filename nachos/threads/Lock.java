@@ -48,7 +48,7 @@ public class Lock extends ResourceNode{
             thread.addEdge(this);
             //Log.write("W," + 
             //          getName() + "," +
-            //          Log.getTimeInMillis() + "," +
+            //          Log.getTime() + "," +
             //          thread.getName() + "," + 
             //          ThreadedKernel.scheduler.getEffectivePriority(thread));
 
@@ -60,7 +60,7 @@ public class Lock extends ResourceNode{
             addEdge(thread);
             //Log.write("A," + 
             //          getName() + "," +
-            //          Log.getTimeInMillis() + "," +
+            //          Log.getTime() + "," +
             //          thread.getName() + "," + 
             //          ThreadedKernel.scheduler.getEffectivePriority(thread));
             waitQueue.acquire(thread);
@@ -86,7 +86,7 @@ public class Lock extends ResourceNode{
         rmEdge(thread);
         //Log.write("R," + 
         //          getName() + "," +
-        //          Log.getTimeInMillis() + "," +
+        //          Log.getTime() + "," +
         //          thread.getName() + "," + 
         //          ThreadedKernel.scheduler.getEffectivePriority(thread));
 
@@ -97,7 +97,7 @@ public class Lock extends ResourceNode{
             addEdge(lockHolder);
             //Log.write("A," + 
             //          getName() + "," +
-            //          Log.getTimeInMillis() + "," +
+            //          Log.getTime() + "," +
             //          lockHolder.getName() + "," + 
             //          ThreadedKernel.scheduler.getEffectivePriority(lockHolder));
             
@@ -129,6 +129,5 @@ public class Lock extends ResourceNode{
 
     private String name;
     private KThread lockHolder = null;
-    private Scheduler scheduler = new RoundRobinScheduler();
-    private ThreadQueue waitQueue = scheduler.newThreadQueue(true);
+    private ThreadQueue waitQueue = ThreadedKernel.newWaitQueue(true);
 }
@@ -11,10 +11,27 @@ public class Log {
             writer.println(s);
     }
 
+    /**
+     * Return the time used for scheduler statistics, relative to
+     * <tt>init()</tt>. This is simulated time in ticks, so the numbers do not
+     * depend on how loaded the host is, unless <tt>statistics.clock</tt> is
+     * <tt>millis</tt>, in which case it is host time in milliseconds.
+     */
+    public static long getTime(){
+        if(useMillis)
+            return getTimeInMillis();
+        return Machine.timer().getTime() - startTicks;
+    }
+
     public static long getTimeInMillis(){
         return System.currentTimeMillis() - startTime;
     }
 
+    //host time in nanoseconds, for profiling the simulator itself
+    public static long getHostNanos(){
+        return System.nanoTime() - startNanos;
+    }
+
     public static void init(){
         //get file name specified
         fileName = Config.getString("statistics.logFile");
@@ -28,9 +45,12 @@ public class Log {
             }
         }
 
-        //get the initial system time
+        useMillis = "millis".equals(Config.getString("statistics.clock"));
+
+        //get the initial system and simulated time
         startTime = System.currentTimeMillis();
-        
+        startNanos = System.nanoTime();
+        startTicks = Machine.timer().getTime();
     }
 
     public static void destroy(){
@@ -39,6 +59,9 @@ public class Log {
     }
 
     private static long startTime = 0;
+    private static long startNanos = 0;
+    private static long startTicks = 0;
+    private static boolean useMillis = false;
     private static PrintWriter writer;
     private static String fileName = null;
 }
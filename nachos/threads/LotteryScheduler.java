@@ -25,14 +25,21 @@ import java.util.Iterator;
  * particular, tickets must be transferred through locks, and through joins.
  * Unlike a priority scheduler, these tickets add (as opposed to just taking
  * the maximum).
+ *
+ * <p>
+ * Tickets are transferred along the <tt>ResourceNode</tt> graph, so a thread
+ * holding a lock holds the tickets of every thread waiting for it. Each queue
+ * keeps the tickets of its threads in a partial-sum (Fenwick) tree, so that
+ * both drawing a winner and changing a thread's tickets take O(log n) time.
  */
 public class LotteryScheduler extends PriorityScheduler {
     /**
      * Allocate a new lottery scheduler.
      */
     public LotteryScheduler() {
+	ResourceNode.enableDonationSums();
     }
-    
+
     /**
      * Allocate a new lottery thread queue.
      *
@@ -42,7 +49,292 @@ public class LotteryScheduler extends PriorityScheduler {
      * @return	a new lottery thread queue.
      */
     public ThreadQueue newThreadQueue(boolean transferPriority) {
-	// implement me
-	return null;
+	return new LotteryQueue(transferPriority);
+    }
+
+    public void setPriority(KThread thread, int priority) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	Lib.assertTrue(priority >= priorityMinimum &&
+		   priority <= priorityMaximum);
+
+	getThreadState(thread).setPriority(priority);
+    }
+
+    public boolean increasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+
+	int priority = getPriority(thread);
+	if (priority == priorityMaximum) {
+	    Machine.interrupt().restore(intStatus);
+	    return false;
+	}
+
+	setPriority(thread, priority+1);
+
+	Machine.interrupt().restore(intStatus);
+	return true;
+    }
+
+    public boolean decreasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+
+	int priority = getPriority(thread);
+	if (priority == priorityMinimum) {
+	    Machine.interrupt().restore(intStatus);
+	    return false;
+	}
+
+	setPriority(thread, priority-1);
+
+	Machine.interrupt().restore(intStatus);
+	return true;
+    }
+
+    public void donationChanged(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	// states are still being built while the thread is constructed
+	if (thread.schedulingState == null)
+	    return;
+
+	LotteryThreadState state = getLotteryThreadState(thread);
+	if (state.waitQueue != null)
+	    state.waitQueue.update(state);
+    }
+
+    /**
+     * The default number of tickets for a new thread.
+     */
+    public static final int priorityDefault = 1;
+    /**
+     * The minimum number of tickets that a thread can have.
+     */
+    public static final int priorityMinimum = 1;
+    /**
+     * The maximum number of tickets that a thread can have.
+     */
+    public static final int priorityMaximum = Integer.MAX_VALUE;
+
+    /**
+     * Return the scheduling state of the specified thread.
+     *
+     * @param	thread	the thread whose scheduling state to return.
+     * @return	the scheduling state of the specified thread.
+     */
+    protected ThreadState getThreadState(KThread thread) {
+	if (thread.schedulingState == null)
+	    thread.schedulingState = new LotteryThreadState(thread);
+
+	return (ThreadState) thread.schedulingState;
+    }
+
+    protected LotteryThreadState getLotteryThreadState(KThread thread) {
+	return (LotteryThreadState) getThreadState(thread);
+    }
+
+    /**
+     * A <tt>ThreadQueue</tt> that holds a lottery among its threads.
+     *
+     * <p>
+     * Every waiting thread owns a slot. <tt>tree</tt> is a Fenwick tree over
+     * the tickets in each slot, so the winning slot of a draw can be found
+     * by walking down the tree instead of summing the tickets of every
+     * thread.
+     */
+    protected class LotteryQueue extends ThreadQueue {
+	LotteryQueue(boolean transferPriority) {
+	    this.transferPriority = transferPriority;
+	}
+
+	public void waitForAccess(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    LotteryThreadState state = getLotteryThreadState(thread);
+	    Lib.assertTrue(state.waitQueue == null);
+
+	    if (numFree == 0 && size == capacity)
+		grow();
+
+	    int slot = (numFree > 0) ? freeSlots[--numFree] : size++;
+
+	    owners[slot] = state;
+	    state.slot = slot;
+	    state.waitQueue = this;
+	    setTickets(slot, getTickets(state));
+	    count++;
+	}
+
+	public void acquire(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+	}
+
+	public KThread nextThread() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    if (count == 0)
+		return null;
+
+	    long winner = (long) (Lib.random() * totalTickets);
+	    if (winner >= totalTickets)
+		winner = totalTickets - 1;
+
+	    LotteryThreadState state = owners[findSlot(winner)];
+	    remove(state);
+
+	    return state.thread;
+	}
+
+	//winning a draw changes nothing about the winner
+	public KThread removeNextThread() {
+	    return nextThread();
+	}
+
+	/**
+	 * Recompute the tickets of a thread waiting on this queue, after its
+	 * own tickets or the tickets donated to it changed.
+	 *
+	 * @param	state	the state of a thread waiting on this queue.
+	 */
+	void update(LotteryThreadState state) {
+	    Lib.assertTrue(state.waitQueue == this);
+	    setTickets(state.slot, getTickets(state));
+	}
+
+	public void print() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    for (int i=0; i<size; i++) {
+		if (owners[i] != null)
+		    System.out.print(owners[i].thread + " (" + tickets[i] +
+				     ") ");
+	    }
+	}
+
+	private long getTickets(LotteryThreadState state) {
+	    if (transferPriority)
+		return state.getEffectivePriority();
+	    else
+		return state.getPriority();
+	}
+
+	private void remove(LotteryThreadState state) {
+	    int slot = state.slot;
+
+	    setTickets(slot, 0);
+	    owners[slot] = null;
+	    freeSlots[numFree++] = slot;
+	    count--;
+
+	    state.waitQueue = null;
+	    state.slot = -1;
+	}
+
+	private void setTickets(int slot, long value) {
+	    long delta = value - tickets[slot];
+	    if (delta == 0)
+		return;
+
+	    tickets[slot] = value;
+	    totalTickets += delta;
+
+	    for (int i=slot+1; i<=capacity; i += i & -i)
+		tree[i] += delta;
+	}
+
+	// find the slot holding ticket number winner, i.e. the first slot
+	// whose running total of tickets exceeds winner
+	private int findSlot(long winner) {
+	    int pos = 0;
+
+	    for (int step=Integer.highestOneBit(capacity); step>0; step>>=1) {
+		if (pos+step <= capacity && tree[pos+step] <= winner) {
+		    pos += step;
+		    winner -= tree[pos];
+		}
+	    }
+
+	    return pos;
+	}
+
+	private void grow() {
+	    int newCapacity = capacity*2;
+
+	    long[] newTickets = new long[newCapacity];
+	    System.arraycopy(tickets, 0, newTickets, 0, capacity);
+	    LotteryThreadState[] newOwners = new LotteryThreadState[newCapacity];
+	    System.arraycopy(owners, 0, newOwners, 0, capacity);
+
+	    tickets = newTickets;
+	    owners = newOwners;
+	    freeSlots = new int[newCapacity];
+	    capacity = newCapacity;
+
+	    // rebuild the tree in linear time
+	    tree = new long[capacity+1];
+	    for (int i=1; i<=capacity; i++) {
+		tree[i] += tickets[i-1];
+		int parent = i + (i & -i);
+		if (parent <= capacity)
+		    tree[parent] += tree[i];
+	    }
+	}
+
+	/**
+	 * <tt>true</tt> if this queue should transfer tickets from waiting
+	 * threads to the owning thread.
+	 */
+	public boolean transferPriority;
+
+	private int capacity = 8;
+	private long[] tree = new long[capacity+1];
+	private long[] tickets = new long[capacity];
+	private LotteryThreadState[] owners = new LotteryThreadState[capacity];
+	private int[] freeSlots = new int[capacity];
+
+	/** Number of slots ever used, free or not. */
+	private int size = 0;
+	private int numFree = 0;
+	private int count = 0;
+	private long totalTickets = 0;
+    }
+
+    /**
+     * The scheduling state of a thread under a lottery scheduler.
+     */
+    protected class LotteryThreadState extends ThreadState {
+	public LotteryThreadState(KThread thread) {
+	    super(thread);
+	}
+
+	/**
+	 * Return the effective tickets of the associated thread: its own
+	 * tickets plus those of every thread waiting for it.
+	 *
+	 * @return	the effective tickets of the associated thread.
+	 */
+	public int getEffectivePriority() {
+	    return thread.getDonationSum();
+	}
+
+	public void setPriority(int priority) {
+	    if (this.priority == priority)
+		return;
+
+	    this.priority = priority;
+
+	    // our tickets also count for every thread we are donating to
+	    if (thread.schedulingState == this)
+		thread.propagateDonation();
+	}
+
+	/** The queue the associated thread is waiting on, if any. */
+	LotteryQueue waitQueue = null;
+	/** The slot of the associated thread in <tt>waitQueue</tt>. */
+	int slot = -1;
     }
 }
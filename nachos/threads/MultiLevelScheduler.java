@@ -6,6 +6,7 @@ import java.util.TreeSet;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.Comparator;
 
 /**
@@ -37,6 +38,8 @@ public class MultiLevelScheduler extends Scheduler {
         //initialize statistics and logging for part D.
         Log.init();
 
+        Lib.assertTrue(topLevelLimit < midLevelLimit);
+
         totalNumThreads = -1;
         WaitingTime = 0;
         TurnaroundTime = 0;
@@ -61,7 +64,16 @@ public class MultiLevelScheduler extends Scheduler {
      * @return	a new priority thread queue.
      */
     public ThreadQueue newThreadQueue(boolean transferPriority) {
-        return waitQueue = new MThreadPriorityQueue(transferPriority);
+        return waitQueue = new MThreadPriorityQueue(transferPriority, true);
+    }
+
+    /**
+     * Allocate a thread queue for a lock or semaphore. It orders threads the
+     * same way as the ready queue, but the thread it hands the lock or
+     * semaphore to is neither counted as scheduled nor logged.
+     */
+    public ThreadQueue newWaitQueue(boolean transferPriority) {
+        return new MThreadPriorityQueue(transferPriority, false);
     }
 
     public int getPriority(KThread thread) {
@@ -131,11 +143,11 @@ public class MultiLevelScheduler extends Scheduler {
                   t.arrival+","+
                   t.running+","+
                   t.waiting+","+
-                  Log.getTimeInMillis());
+                  Log.getTime());
 
         //update system level stats
         WaitingTime += t.waiting;
-        TurnaroundTime += Log.getTimeInMillis() - t.arrival;
+        TurnaroundTime += Log.getTime() - t.arrival;
         if(t.waiting > maximumWaitingTime)
             maximumWaitingTime = t.waiting;
     }
@@ -156,6 +168,20 @@ public class MultiLevelScheduler extends Scheduler {
 
     public static final int agingTime =
     Integer.parseInt(Config.getString("scheduler.agingTime"));
+
+    /**
+     * The largest effective priority of a thread in the top level. Threads
+     * above this but no greater than <tt>midLevelLimit</tt> wait in the
+     * middle level, and all others in the bottom level.
+     */
+    public static final int topLevelLimit =
+    Config.getInteger("scheduler.topLevelLimit", 10);
+
+    /**
+     * The largest effective priority of a thread in the middle level.
+     */
+    public static final int midLevelLimit =
+    Config.getInteger("scheduler.midLevelLimit", 20);
     
     private int totalNumThreads;
     private long WaitingTime;
@@ -181,31 +207,61 @@ public class MultiLevelScheduler extends Scheduler {
 
     /**
      * A <tt>ThreadQueue</tt> that sorts threads by priority.
+     *
+     * <p>
+     * Threads are kept in three FIFO levels (top, middle and bottom) according
+     * to their effective priority. Rather than re-aging every queued thread on
+     * each call to <tt>nextThread()</tt>, the time at which a thread will age
+     * into a better level is computed when it is queued, and a promotion event
+     * is scheduled for that time. Only threads whose promotion is due are
+     * touched when the next thread is picked.
      */
     class MThreadPriorityQueue extends ThreadQueue {
-        MThreadPriorityQueue(boolean transferPriority) {
+        MThreadPriorityQueue(boolean transferPriority, boolean accounting) {
             this.transferPriority = transferPriority;
+            this.accounting = accounting;
         }
 
         public void waitForAccess(KThread thread) {
             Lib.assertTrue(Machine.interrupt().disabled());
-            insert(thread);
-            MultiLevelScheduler.getMThreadState(thread).waitForAccess(this);
+            //account for the time it was running before picking its level
+            MThreadState ts = MultiLevelScheduler.getMThreadState(thread);
+            ts.waitForAccess(this);
+            insert(ts, Log.getTime());
         }
 
         public void acquire(KThread thread) {
             Lib.assertTrue(Machine.interrupt().disabled());
-            MultiLevelScheduler.getMThreadState(thread).acquire(this);
+            if(accounting)
+                MultiLevelScheduler.getMThreadState(thread).acquire(this);
         }
 
         public KThread nextThread() {
             Lib.assertTrue(Machine.interrupt().disabled());
+
+            KThread temp = removeNextThread();
+            if(temp == null || !accounting)
+                return temp;
+
+            MThreadState ts = MultiLevelScheduler.getMThreadState(temp);
+            ts.scheduled();
+
+            //write stats about scheduled thread
+            Log.write(Log.getTime() + ","+
+                      temp.getName()+","+
+                      ts.getEffectivePriority());
+
+            return temp;
+        }
+
+        public KThread removeNextThread() {
+            Lib.assertTrue(Machine.interrupt().disabled());
             
-            //age the threads
-            age();
+            //move the threads whose promotion is due
+            age(Log.getTime());
 
             //Picks the first non empty queue out of topWaitQueue, midWaitQueue and botWaitQueue.
-            LinkedList current;
+            LinkedHashSet current;
             if(!topWaitQueue.isEmpty())
                 current = topWaitQueue;
             else if(!midWaitQueue.isEmpty())
@@ -215,55 +271,50 @@ public class MultiLevelScheduler extends Scheduler {
             else
                 return null;
 
+            Iterator iter = current.iterator();
+            MThreadState ts = (MThreadState) iter.next();
+            iter.remove();
+            cancelPromotion(ts);
+            ts.waitQueue = null;
 
-            KThread temp = (KThread) current.poll();
-            MThreadState ts = MultiLevelScheduler.getMThreadState(temp);
-            ts.scheduled();
+            return ts.thread;
+        }
 
-            //write stats about scheduled thread
-            Log.write(Log.getTimeInMillis() + ","+
-                      temp.getName()+","+
-                      ts.getEffectivePriority());
+        //Runs every promotion event that is due at time now. Each thread that
+        //has aged past a level boundary is moved to the end of its new level
+        //and, unless it reached the top level, gets its next promotion scheduled.
+        public void age(long now){
+            while(!promotions.isEmpty() &&
+                  ((Promotion) promotions.first()).time <= now){
+                Promotion p = (Promotion) promotions.first();
+                promotions.remove(p);
 
-            return temp;
-        }
+                MThreadState ts = p.state;
+                ts.promotion = null;
+                levelOf(ts.level).remove(ts);
 
-        public void age(){//Implements age by ensure threads are in queues according to priorities compared to the thread currently in queue and the restrictions of the queues themselves (topWait:0-10, midWait:11-20, botWait:21 and above)
-            
-            //for each queue, age each thread, removing it from the queue if it
-            //exceeds the limit and add it back to the appropriate one
-            Iterator iter = topWaitQueue.iterator();
-            for( ; iter.hasNext(); ){
-                KThread t = (KThread) iter.next();
-                MThreadState ts = MultiLevelScheduler.getMThreadState(t);
-                ts.age();
-                if(ts.getEffectivePriority() > 10){
-                    iter.remove();
-                    insert(t);
-                }
-            }
-            iter = midWaitQueue.iterator();
-            for( ; iter.hasNext(); ){
-                KThread t = (KThread) iter.next();
-                MThreadState ts = MultiLevelScheduler.getMThreadState(t);
-                ts.age();
-                if(ts.getEffectivePriority() < 11 || ts.getEffectivePriority() > 20){
-                    iter.remove();
-                    insert(t);
-                }
-            }
-            iter = botWaitQueue.iterator();
-            for( ; iter.hasNext(); ){
-                KThread t = (KThread) iter.next();
-                MThreadState ts = MultiLevelScheduler.getMThreadState(t);
+                //bring its waiting time up to date before re-leveling
                 ts.age();
-                if(ts.getEffectivePriority() < 21){
-                    iter.remove();
-                    insert(t);
-                }
+                insert(ts, now);
             }
         }
 
+        /**
+         * Move the specified thread to the level matching its current
+         * effective priority. Called when the base priority of a queued
+         * thread changes.
+         *
+         * @param	ts	the state of a thread waiting on this queue.
+         */
+        public void requeue(MThreadState ts){
+            Lib.assertTrue(ts.waitQueue == this);
+
+            levelOf(ts.level).remove(ts);
+            cancelPromotion(ts);
+            ts.age();
+            insert(ts, Log.getTime());
+        }
+
         /**
          * Return the next thread that <tt>nextThread()</tt> would return,
          * without modifying the state of this queue.
@@ -280,21 +331,95 @@ public class MultiLevelScheduler extends Scheduler {
         }
         
 
-        //Adds thread in the right position of the linked list based on its effective priority.
-        public void insert(KThread thread){
-            int priority =
-                MultiLevelScheduler.getMThreadState(thread).getEffectivePriority();
+        //Adds thread at the end of the level matching its effective priority
+        //and schedules its promotion to the next better level.
+        private void insert(MThreadState ts, long now){
+            int priority = ts.getEffectivePriority();
+
+            if(priority <= MultiLevelScheduler.topLevelLimit)
+                ts.level = topLevel;
+            else if(priority <= MultiLevelScheduler.midLevelLimit)
+                ts.level = midLevel;
+            else
+                ts.level = botLevel;
+
+            levelOf(ts.level).add(ts);
+            ts.waitQueue = this;
+
+            if(ts.level == midLevel)
+                schedulePromotion(ts, MultiLevelScheduler.topLevelLimit, now);
+            else if(ts.level == botLevel)
+                schedulePromotion(ts, MultiLevelScheduler.midLevelLimit, now);
+        }
+
+        //Schedules the time at which the effective priority of ts will first
+        //be at most limit, assuming it keeps waiting from now on.
+        private void schedulePromotion(MThreadState ts, int limit, long now){
+            if(limit < MultiLevelScheduler.priorityMinimum)
+                return;
+
+            //effective priority is priority - (waiting - running)/agingTime,
+            //with the division truncating toward zero, so find the smallest
+            //waiting - running that brings it down to limit
+            int agingTime = MultiLevelScheduler.agingTime;
+            long k = ts.priority - limit;
+            long needed;
+            if(k > 0)
+                needed = k * agingTime;
+            else
+                needed = (k - 1) * agingTime + 1;
 
-            if(priority < 11){
-                topWaitQueue.add(thread);
+            long when = ts.last + needed - (ts.waiting - ts.running);
+            if(when < now)
+                when = now;
+
+            ts.promotion = new Promotion(when, ts);
+            promotions.add(ts.promotion);
+        }
+
+        private void cancelPromotion(MThreadState ts){
+            if(ts.promotion != null){
+                promotions.remove(ts.promotion);
+                ts.promotion = null;
             }
-            else if (priority < 21){
-                midWaitQueue.add(thread);
+        }
+
+        private LinkedHashSet levelOf(int level){
+            if(level == topLevel)
+                return topWaitQueue;
+            else if(level == midLevel)
+                return midWaitQueue;
+            else
+                return botWaitQueue;
+        }
+
+        //A pending promotion, ordered by time and then by creation so that
+        //threads due at the same time move in the order they were scheduled.
+        class Promotion implements Comparable {
+            Promotion(long time, MThreadState state){
+                this.time = time;
+                this.state = state;
+                this.id = numPromotionsCreated++;
             }
-            else{
-                botWaitQueue.add(thread);
+
+            public int compareTo(Object o){
+                Promotion p = (Promotion) o;
+
+                if(time < p.time)
+                    return -1;
+                else if(time > p.time)
+                    return 1;
+                else if(id < p.id)
+                    return -1;
+                else if(id > p.id)
+                    return 1;
+                else
+                    return 0;
             }
-                
+
+            long time;
+            MThreadState state;
+            private long id;
         }
 
         /**
@@ -302,10 +427,24 @@ public class MultiLevelScheduler extends Scheduler {
          * threads to the owning thread.
          */
         public boolean transferPriority;
+        /**
+         * <tt>true</tt> if threads chosen from this queue get the processor,
+         * so each choice counts as a dispatch in the statistics and is logged.
+         * <tt>false</tt> for the wait queues of locks and semaphores, which
+         * only hand the thread the lock or semaphore.
+         */
+        public boolean accounting;
+
+        static final int topLevel = 0;
+        static final int midLevel = 1;
+        static final int botLevel = 2;
  
-        private LinkedList topWaitQueue = new LinkedList();
-        private LinkedList midWaitQueue = new LinkedList();
-        private LinkedList botWaitQueue = new LinkedList();
+        private LinkedHashSet topWaitQueue = new LinkedHashSet<MThreadState>();
+        private LinkedHashSet midWaitQueue = new LinkedHashSet<MThreadState>();
+        private LinkedHashSet botWaitQueue = new LinkedHashSet<MThreadState>();
+
+        private TreeSet promotions = new TreeSet<Promotion>();
+        private long numPromotionsCreated = 0;
     }
 
     /**
@@ -348,8 +487,8 @@ public class MultiLevelScheduler extends Scheduler {
             //priority should be the same as what was set.
             int sum = (int) (waiting - running);
 
-            //divide by the aging time because if a thread has waited 5ms and
-            //the aging time is 5ms then its priority is increased by 1
+            //divide by the aging time because if a thread has waited 50 ticks and
+            //the aging time is 50 ticks then its priority is increased by 1
             int effectivePriority = priority - sum / MultiLevelScheduler.agingTime;
 
             //keep priorities within range of limits
@@ -372,8 +511,9 @@ public class MultiLevelScheduler extends Scheduler {
 
             this.priority = priority;
 
-
-            // implement me
+            //a queued thread may now belong to a different level
+            if(waitQueue != null)
+                waitQueue.requeue(this);
         }
 
         /**
@@ -408,39 +548,39 @@ public class MultiLevelScheduler extends Scheduler {
         }
         
         public void arrived(){
-            arrival = Log.getTimeInMillis();
+            arrival = Log.getTime();
             last = arrival;   
         }
 
         public void departed(){
-            long diff = Log.getTimeInMillis() - last;
+            long diff = Log.getTime() - last;
             if(wasRunning){
                 running += diff;
                 wasRunning = false;
-                last = Log.getTimeInMillis();
+                last = Log.getTime();
             }
 
         }
 
         public void scheduled(){
-            long diff = Log.getTimeInMillis() - last;
+            long diff = Log.getTime() - last;
             wasRunning = true;
             waiting += diff;
-            last = Log.getTimeInMillis();
+            last = Log.getTime();
         }
 
         public void age(){
-            long diff = Log.getTimeInMillis() - last;
+            long diff = Log.getTime() - last;
             waiting += diff;
-            last = Log.getTimeInMillis();
+            last = Log.getTime();
         }
 
         public void waiting(){
-            long diff = Log.getTimeInMillis() - last;
+            long diff = Log.getTime() - last;
             if(wasRunning){
                 running += diff;
                 wasRunning = false;
-                last = Log.getTimeInMillis();
+                last = Log.getTime();
             }
         }
 
@@ -453,4 +593,11 @@ public class MultiLevelScheduler extends Scheduler {
         public long running = 0;
         public long last = 0;
         private boolean wasRunning = false;
+
+        /** The queue this thread is waiting on, if any. */
+        MThreadPriorityQueue waitQueue = null;
+        /** The level of <tt>waitQueue</tt> this thread is waiting in. */
+        int level;
+        /** The next scheduled promotion of this thread, if any. */
+        MThreadPriorityQueue.Promotion promotion = null;
     }
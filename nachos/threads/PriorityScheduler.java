@@ -146,6 +146,15 @@ public class PriorityScheduler extends Scheduler {
 	    return null;
 	}
 
+	public KThread removeNextThread() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+	    // implement me (with pickNextThread(), like nextThread()). Until
+	    // then, fail here: stealing and balancing would take null to mean
+	    // the queue is empty
+	    Lib.assertNotReached("PriorityQueue.removeNextThread() is not implemented");
+	    return null;
+	}
+
 	/**
 	 * Return the next thread that <tt>nextThread()</tt> would return,
 	 * without modifying the state of this queue.
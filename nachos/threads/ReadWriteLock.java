@@ -0,0 +1,192 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.HashSet;
+
+/**
+ * A <tt>ReadWriteLock</tt> lets any number of readers hold it at once, or a
+ * single writer. Waiting writers are preferred: once a writer is waiting, new
+ * readers wait behind it, so a steady stream of readers cannot starve it.
+ * When a writer releases the lock, the next waiting writer gets it if there is
+ * one, otherwise every waiting reader gets it together.
+ *
+ * <p>
+ * Like <tt>Lock</tt>, this is a node in the resource graph. Each reader or
+ * writer holding it has an allocation edge from the lock, and each waiting
+ * thread has a request edge to it, so a waiting writer donates its priority
+ * to every reader holding the lock, and waiting readers donate theirs to the
+ * writer holding it.
+ */
+public class ReadWriteLock extends ResourceNode{
+    /**
+     * Allocate a new read-write lock. The lock will initially be <i>free</i>.
+     */
+    public ReadWriteLock() {
+        setMyPriority();
+    }
+
+    public ReadWriteLock(String name){
+        setMyPriority();
+        this.name = name;
+    }
+
+    /**
+     * Acquire this lock for reading, waiting while a writer holds it or is
+     * waiting for it.
+     */
+    public void acquireRead() {
+        boolean intStatus = Machine.interrupt().disable();
+        KThread thread = KThread.currentThread();
+
+        Lib.assertTrue(writer != thread && !readers.contains(thread));
+
+        if (writer != null || numWritersWaiting > 0) {
+            //add request edge, the writer that lets us in switches it to an
+            //allocation edge
+            thread.addEdge(this);
+            numReadersWaiting++;
+            readQueue.waitForAccess(thread);
+            KThread.sleep();
+        }
+        else {
+            //add allocation edge
+            addEdge(thread);
+            readQueue.acquire(thread);
+            readers.add(thread);
+        }
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Release this lock after reading. The last reader out lets a waiting
+     * writer in. Only a thread holding this lock for reading may release it.
+     */
+    public void releaseRead() {
+        Lib.assertTrue(isReadHeldByCurrentThread());
+
+        boolean intStatus = Machine.interrupt().disable();
+        KThread thread = KThread.currentThread();
+
+        //remove allocation edge
+        rmEdge(thread);
+        readers.remove(thread);
+
+        if (readers.isEmpty() && numWritersWaiting > 0)
+            grantWriter();
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Acquire this lock for writing, waiting until no reader or writer holds
+     * it.
+     */
+    public void acquireWrite() {
+        Lib.assertTrue(!isWriteHeldByCurrentThread());
+
+        boolean intStatus = Machine.interrupt().disable();
+        KThread thread = KThread.currentThread();
+
+        if (writer != null || !readers.isEmpty()) {
+            //add request edge
+            thread.addEdge(this);
+            numWritersWaiting++;
+            writeQueue.waitForAccess(thread);
+            KThread.sleep();
+        }
+        else {
+            //add allocation edge
+            addEdge(thread);
+            writeQueue.acquire(thread);
+            writer = thread;
+        }
+
+        Lib.assertTrue(writer == thread);
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Release this lock after writing.
+     */
+    public void releaseWrite() {
+        Lib.assertTrue(isWriteHeldByCurrentThread());
+
+        boolean intStatus = Machine.interrupt().disable();
+
+        //remove allocation edge
+        rmEdge(writer);
+        writer = null;
+
+        if (numWritersWaiting > 0)
+            grantWriter();
+        else
+            grantReaders();
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Test if the current thread holds this lock for reading.
+     *
+     * @return	true if the current thread holds this lock for reading.
+     */
+    public boolean isReadHeldByCurrentThread() {
+        return readers.contains(KThread.currentThread());
+    }
+
+    /**
+     * Test if the current thread holds this lock for writing.
+     *
+     * @return	true if the current thread holds this lock for writing.
+     */
+    public boolean isWriteHeldByCurrentThread() {
+        return (writer == KThread.currentThread());
+    }
+
+    //hand the lock to the best waiting writer
+    private void grantWriter() {
+        writer = writeQueue.nextThread();
+        numWritersWaiting--;
+
+        //turn its request edge into an allocation edge
+        writer.rmEdge(this);
+        addEdge(writer);
+
+        writer.ready();
+    }
+
+    //hand the lock to every waiting reader
+    private void grantReaders() {
+        KThread reader;
+        while ((reader = readQueue.nextThread()) != null) {
+            reader.rmEdge(this);
+            addEdge(reader);
+            readers.add(reader);
+
+            reader.ready();
+        }
+        numReadersWaiting = 0;
+    }
+
+    public String getName(){
+        if(name == null)
+            return toString();
+        else
+            return name;
+    }
+
+    protected int getMyPriority(){
+        return Integer.parseInt(Config.getString("scheduler.maxPriorityValue"));
+    }
+
+    private String name;
+    private KThread writer = null;
+    private HashSet readers = new HashSet<KThread>();
+    private int numReadersWaiting = 0;
+    private int numWritersWaiting = 0;
+    private ThreadQueue readQueue = ThreadedKernel.newWaitQueue(true);
+    private ThreadQueue writeQueue = ThreadedKernel.newWaitQueue(true);
+}
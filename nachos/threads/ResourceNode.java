@@ -3,14 +3,15 @@ package nachos.threads;
 import nachos.machine.*;
 import nachos.threads.*;
 import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.Iterator;
 
 public abstract class ResourceNode {
-    
+
     public ResourceNode(){
-       
+
     }
-    
+
     /* This is how getEffectivePriority gets the priority with donation from the
      * resource graph.
      */
@@ -20,60 +21,384 @@ public abstract class ResourceNode {
 
     /* Add an edge to the resource graph going from us to node n. Since we added
      * a new path, we need to propagate our value along this path to keep all
-     * paths having decreasing priority.
+     * paths having decreasing priority. If n can already reach us, the new edge
+     * closes a cycle, which means the threads on it are deadlocked.
      */
     public void addEdge(ResourceNode n){
-        this.outgoing.add(n);
-        n.incoming.add(this);
+        Edge e = new Edge(this, n);
+        if(n.reaches(this)){
+            cycleDetected(n);
+            //donations must not go around the cycle forever
+            e.carriesDonation = false;
+        }
 
-        n.propagate(this.minimumPriority);
+        this.outgoing.add(e);
+        n.heapInsert(e);
+        this.linkGraph();
+        n.linkGraph();
+
+        n.update();
+        if(sumDonations && e.carriesDonation)
+            n.addDonation(donationSum);
     }
 
     /* Remove the edge from us to node n. Since we took away an incoming edge
-     * from n, we need to let it know to fix it's minimum value. Note that node
-     * n has no outgoing edges from it so no matter what its new minimum is it
-     * wont break the graph
+     * from n, its minimum may go up, and so may the minimum of every node it
+     * flows into.
      */
     public void rmEdge(ResourceNode n){
-        this.outgoing.remove(n);
-        n.incoming.remove(this);
+        Edge e = null;
+        Iterator iter = outgoing.iterator();
+        while(iter.hasNext()){
+            Edge next = (Edge) iter.next();
+            if(next.to == n){
+                e = next;
+                iter.remove();
+                break;
+            }
+        }
+        Lib.assertTrue(e != null);
+
+        n.heapRemove(e);
+        this.unlinkGraph();
+        n.unlinkGraph();
 
-        n.fixMin(this.minimumPriority);
+        n.update();
+        if(sumDonations && e.carriesDonation)
+            n.addDonation(-donationSum);
     }
-    
-    /* Propagate information along the edges of our graph. Here priority is the
-     * minimum priority of the incoming node which just changed its priority. If
-     * it is lower than our minimum then we found something better. Use it and
-     * let our outgoing edges know that we found a better priority.
+
+    /* Recompute our minimum, and if it changed, that of every node downstream
+     * of us. Uses an explicit worklist instead of recursion so that long lock
+     * chains cannot overflow the stack. Each node keeps its incoming edges in
+     * a heap ordered by the minimum of the node they come from, so finding its
+     * new minimum and fixing its place in the heap of the next node are both
+     * O(log n). If maxDepth is set, we stop that many edges away from here.
      */
-    private void propagate(int priority){
-        if(priority < minimumPriority){
-            minimumPriority = priority;
+    private void update(){
+        int top = 0;
+        push(top++, this, 0);
+
+        while(top > 0){
+            top--;
+            ResourceNode node = workNodes[top];
+            int depth = workDepths[top];
+            workNodes[top] = null;
 
-            Iterator iter = outgoing.iterator();
+            int oldMin = node.minimumPriority;
+            node.minimumPriority = node.computeMin();
+            if(node.minimumPriority == oldMin)
+                continue;
+
+            if(maxDepth > 0 && depth >= maxDepth)
+                continue;
+
+            Iterator iter = node.outgoing.iterator();
             while(iter.hasNext()){
-                ((ResourceNode) iter.next()).propagate(minimumPriority);
+                Edge e = (Edge) iter.next();
+                e.to.heapFix(e);
+                push(top++, e.to, depth + 1);
             }
         }
     }
-    
-    /* Fix our minimum once we have lost an incoming edge. priority is the min
-     * priority of the edge we just lost. If is equal to our minimum then we
-     * know we need to recalculate since it is no longer available to us.
+
+    //the smaller of our base priority and the best incoming minimum
+    private int computeMin(){
+        if(numIncoming == 0 || myBasePriority <= incoming[0].from.minimumPriority)
+            return myBasePriority;
+        return incoming[0].from.minimumPriority;
+    }
+
+    private static void push(int i, ResourceNode node, int depth){
+        if(i == workNodes.length){
+            ResourceNode[] nodes = new ResourceNode[i*2];
+            int[] depths = new int[i*2];
+            System.arraycopy(workNodes, 0, nodes, 0, i);
+            System.arraycopy(workDepths, 0, depths, 0, i);
+            workNodes = nodes;
+            workDepths = depths;
+        }
+        workNodes[i] = node;
+        workDepths[i] = depth;
+    }
+
+    /* True if following outgoing edges from us leads to target. Marks the
+     * nodes it visits with a pass number instead of keeping a visited set.
+     */
+    private boolean reaches(ResourceNode target){
+        int pass = ++currentPass;
+        int top = 0;
+        push(top++, this, 0);
+
+        boolean found = false;
+        while(top > 0){
+            top--;
+            ResourceNode node = workNodes[top];
+            workNodes[top] = null;
+
+            if(node == target)
+                found = true;
+            if(found || node.visitedPass == pass)
+                continue;
+            node.visitedPass = pass;
+
+            Iterator iter = node.outgoing.iterator();
+            while(iter.hasNext())
+                push(top++, ((Edge) iter.next()).to, 0);
+        }
+
+        return found;
+    }
+
+    /* Called when adding the edge from us to n closes a cycle, which means
+     * the threads on it are deadlocked. Writes the cycle to the log as
+     * Deadlock,time,us,n,...,us so it can be told apart from starvation.
+     */
+    protected void cycleDetected(ResourceNode n){
+        StringBuffer line = new StringBuffer("Deadlock," +
+                Log.getTime() + "," + getName());
+
+        Iterator iter = n.pathTo(this).iterator();
+        while(iter.hasNext())
+            line.append("," + ((ResourceNode) iter.next()).getName());
+
+        Log.write(line.toString());
+    }
+
+    /* The nodes on a path from us to target along outgoing edges, including
+     * both ends. Only used once a cycle is known to exist, so it can afford
+     * to allocate.
+     */
+    private LinkedList pathTo(ResourceNode target){
+        HashMap parent = new HashMap<ResourceNode, ResourceNode>();
+        LinkedList pending = new LinkedList<ResourceNode>();
+
+        parent.put(this, this);
+        pending.add(this);
+        while(!pending.isEmpty() && !parent.containsKey(target)){
+            ResourceNode node = (ResourceNode) pending.removeFirst();
+
+            Iterator iter = node.outgoing.iterator();
+            while(iter.hasNext()){
+                ResourceNode n = ((Edge) iter.next()).to;
+                if(!parent.containsKey(n)){
+                    parent.put(n, node);
+                    pending.add(n);
+                }
+            }
+        }
+
+        LinkedList path = new LinkedList<ResourceNode>();
+        ResourceNode node = target;
+        while(node != this){
+            path.addFirst(node);
+            node = (ResourceNode) parent.get(node);
+        }
+        path.addFirst(this);
+        return path;
+    }
+
+    /* Write every edge of the resource graph to the log, one line per edge
+     * as Graph,time,from,fromMin,to,toMin, after a line giving the number of
+     * nodes that have edges. Meant to be called when the kernel seems hung.
+     */
+    public static void dumpGraph(){
+        boolean intStatus = Machine.interrupt().disable();
+
+        long now = Log.getTime();
+        Log.write("Graph," + now + "," + numGraphNodes);
+
+        for(ResourceNode node = graphHead; node != null; node = node.graphNext){
+            Iterator iter = node.outgoing.iterator();
+            while(iter.hasNext()){
+                ResourceNode n = ((Edge) iter.next()).to;
+                Log.write("Graph," + now + "," +
+                          node.getName() + "," + node.minimumPriority + "," +
+                          n.getName() + "," + n.minimumPriority);
+            }
+        }
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /* The name used for this node in the log. */
+    public String getName(){
+        return toString();
+    }
+
+    //keep the list of nodes that have edges, used by dumpGraph
+    private void linkGraph(){
+        if(inGraph)
+            return;
+
+        inGraph = true;
+        graphPrev = null;
+        graphNext = graphHead;
+        if(graphHead != null)
+            graphHead.graphPrev = this;
+        graphHead = this;
+        numGraphNodes++;
+    }
+
+    private void unlinkGraph(){
+        if(!inGraph || numIncoming > 0 || !outgoing.isEmpty())
+            return;
+
+        inGraph = false;
+        if(graphPrev != null)
+            graphPrev.graphNext = graphNext;
+        else
+            graphHead = graphNext;
+        if(graphNext != null)
+            graphNext.graphPrev = graphPrev;
+        graphPrev = null;
+        graphNext = null;
+        numGraphNodes--;
+    }
+
+    //the heap of incoming edges, smallest source minimum first
+    private void heapInsert(Edge e){
+        if(numIncoming == incoming.length){
+            Edge[] edges = new Edge[numIncoming*2];
+            System.arraycopy(incoming, 0, edges, 0, numIncoming);
+            incoming = edges;
+        }
+        e.index = numIncoming++;
+        incoming[e.index] = e;
+        siftUp(e.index);
+    }
+
+    private void heapRemove(Edge e){
+        int i = e.index;
+        Lib.assertTrue(incoming[i] == e);
+
+        numIncoming--;
+        if(i != numIncoming){
+            incoming[i] = incoming[numIncoming];
+            incoming[i].index = i;
+            incoming[numIncoming] = null;
+            heapFix(incoming[i]);
+        }
+        else{
+            incoming[numIncoming] = null;
+        }
+        e.index = -1;
+    }
+
+    //the minimum of the source of e changed, move e to its new place
+    private void heapFix(Edge e){
+        siftUp(e.index);
+        siftDown(e.index);
+    }
+
+    private void siftUp(int i){
+        Edge e = incoming[i];
+        while(i > 0){
+            int parent = (i-1)/2;
+            if(incoming[parent].from.minimumPriority <= e.from.minimumPriority)
+                break;
+            incoming[i] = incoming[parent];
+            incoming[i].index = i;
+            i = parent;
+        }
+        incoming[i] = e;
+        e.index = i;
+    }
+
+    private void siftDown(int i){
+        Edge e = incoming[i];
+        while(true){
+            int child = 2*i + 1;
+            if(child >= numIncoming)
+                break;
+            if(child+1 < numIncoming &&
+               incoming[child+1].from.minimumPriority <
+               incoming[child].from.minimumPriority)
+                child++;
+            if(e.from.minimumPriority <= incoming[child].from.minimumPriority)
+                break;
+            incoming[i] = incoming[child];
+            incoming[i].index = i;
+            i = child;
+        }
+        incoming[i] = e;
+        e.index = i;
+    }
+
+    /* Called by a scheduler whose donations add up instead of taking the
+     * minimum (e.g. lottery tickets), before any node is created. Only then
+     * do nodes keep the sums returned by getDonationSum, so lock operations
+     * under other schedulers do not pay for them.
+     */
+    static void enableDonationSums(){
+        sumDonations = true;
+    }
+
+    /* This is how such a scheduler gets the value of a node: our own
+     * donation plus that of every node with a path to us. The sum is kept up
+     * to date as edges come and go, so this is O(1). A node reachable along
+     * two paths, which takes a ReadWriteLock with several readers, counts
+     * once per path.
      */
-    private void fixMin(int priority){
-        if(minimumPriority == priority){
-            minimumPriority = myBasePriority;
+    public int getDonationSum(){
+        Lib.assertTrue(sumDonations);
+
+        if(donationSum > Integer.MAX_VALUE)
+            return Integer.MAX_VALUE;
+        return (int) donationSum;
+    }
 
-            Iterator iter = incoming.iterator();
+    /* Called when our own donation changed, to update our sum and that of
+     * every node our value flows into.
+     */
+    public void propagateDonation(){
+        if(!sumDonations)
+            return;
+
+        int donation = getMyDonation();
+        int delta = donation - myDonation;
+        myDonation = donation;
+        if(delta != 0)
+            addDonation(delta);
+    }
+
+    /* Add delta to our sum and that of every node downstream of us, and let
+     * each of them know. The edges that carry donations never form a cycle,
+     * so this ends.
+     */
+    private void addDonation(long delta){
+        int top = 0;
+        push(top++, this, 0);
+
+        while(top > 0){
+            top--;
+            ResourceNode node = workNodes[top];
+            workNodes[top] = null;
+
+            node.donationSum += delta;
+            node.donationChanged();
+
+            Iterator iter = node.outgoing.iterator();
             while(iter.hasNext()){
-                int temp = ((ResourceNode) iter.next()).minimumPriority;
-                if(temp < minimumPriority)
-                    minimumPriority = temp;
+                Edge e = (Edge) iter.next();
+                if(e.carriesDonation)
+                    push(top++, e.to, 0);
             }
         }
     }
 
+    /* Child classes that take part in additive donation override this to
+     * give the amount they donate themselves. Nodes like locks donate
+     * nothing of their own.
+     */
+    protected int getMyDonation(){
+        return 0;
+    }
+
+    /* Called on a node when the donations reaching it changed. */
+    protected void donationChanged(){
+    }
+
     /* Child classes will override this method so that we know how to get the
      * base priority for this node.
      */
@@ -86,65 +411,70 @@ public abstract class ResourceNode {
     protected void setMyPriority(){
         myBasePriority = getMyPriority();
         minimumPriority = myBasePriority;
+
+        if(sumDonations){
+            myDonation = getMyDonation();
+            donationSum = myDonation;
+        }
     }
 
     /* called as a result of Scheduler.setPriority
      * If we are here, it means that the base priority of this thread has
-     * changed due to circumstances outside of our control. We must now fix the
-     * the resource allocation graph.
+     * changed due to circumstances outside of our control. Our minimum may go
+     * down or up, either way update() fixes the rest of the graph.
      */
     public void resetPriority(){
         //get new base priority
         myBasePriority = getMyPriority();
 
-        //if it is lower than our minimum, thats fine. Just tell other nodes
-        //that we have a new lower priority like usual
-        if(myBasePriority < minimumPriority){
-            propagate(myBasePriority);
-        }
-        else if(myBasePriority > minimumPriority){
-            // if it is greater, then we have a problem since our minimum
-            // priority might actually increase. Normally, this wouldn't be an
-            // issue because every other way it could possibly increase we are
-            // guarnteed to have no outgoing edges. However, there is no such
-            // restriction if we allow a thread's base priority to change at any
-            // time.
-            resetMin();
-        }
+        update();
     }
 
-    /* Force re-evaluation of minimum in case it went up. If it is higher then
-     * force all neighbors to re-evaluate their own minimum.
+    /* An edge of the resource graph. It sits in the outgoing list of from and
+     * in the incoming heap of to, at position index.
      */
-    private void resetMin(){
-        //hold old minimum
-        int oldMin = minimumPriority;
-
-        //find minimum of all incoming edges and my new base prioriy
-        minimumPriority = myBasePriority;
-
-        Iterator iter = incoming.iterator();
-        while(iter.hasNext()){
-            int temp = ((ResourceNode) iter.next()).minimumPriority;
-            if(temp < minimumPriority)
-                minimumPriority = temp;
-        }
-
-        //if my minimum went up, the graph could be broken. Force all of my
-        //outgoing neighbors to re-evaluate their own minimum in case they were
-        //relying on my minimum. This is the step that is usually not required
-        //when we evaluate our minimum because we know there are no outgoing
-        //edges.
-        if(minimumPriority > oldMin){
-            iter = outgoing.iterator();
-            while(iter.hasNext()){
-                ((ResourceNode) iter.next()).resetMin();
-            }
+    private static class Edge {
+        Edge(ResourceNode from, ResourceNode to){
+            this.from = from;
+            this.to = to;
         }
+
+        ResourceNode from;
+        ResourceNode to;
+        int index = -1;
+        /* False for the edge that closed a cycle. */
+        boolean carriesDonation = true;
     }
-    
-    private LinkedList incoming = new LinkedList<ResourceNode>();
-    private LinkedList outgoing = new LinkedList<ResourceNode>();
+
+    private Edge[] incoming = new Edge[2];
+    private int numIncoming = 0;
+    private LinkedList outgoing = new LinkedList<Edge>();
     private int myBasePriority;
     private int minimumPriority;
+    private int visitedPass = 0;
+    private boolean inGraph = false;
+    private ResourceNode graphPrev = null;
+    private ResourceNode graphNext = null;
+    private int myDonation = 0;
+    private long donationSum = 0;
+
+    /* How many edges away from a change its effect is propagated. 0 means no
+     * limit. A limit trades exact donation along very long chains for a
+     * bounded cost per acquire and release.
+     */
+    private static final int maxDepth =
+        Config.getInteger("ResourceNode.maxDepth", 0);
+
+    //worklist shared by update() and reaches(), interrupts are disabled
+    //whenever the graph changes so only one of them runs at a time
+    private static ResourceNode[] workNodes = new ResourceNode[16];
+    private static int[] workDepths = new int[16];
+    private static int currentPass = 0;
+
+    /* True if nodes keep their donation sums, see enableDonationSums. */
+    private static boolean sumDonations = false;
+
+    /* Nodes with at least one edge, linked through graphNext. */
+    private static ResourceNode graphHead = null;
+    private static int numGraphNodes = 0;
 }
@@ -59,6 +59,17 @@ public class RoundRobinScheduler extends Scheduler {
             return t;
         }
 
+        /**
+         * Remove a thread from the beginning of the queue, the same as
+         * <tt>nextThread()</tt>.
+         *
+         * @return	the first thread on the queue, or <tt>null</tt> if the
+         *		queue is empty.
+         */
+        public KThread removeNextThread() {
+            return nextThread();
+        }
+
         /**
          * The specified thread has received exclusive access, without using
          * <tt>waitForAccess()</tt> or <tt>nextThread()</tt>. Assert that no
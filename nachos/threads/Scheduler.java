@@ -52,6 +52,26 @@ public abstract class Scheduler {
      */
     public abstract ThreadQueue newThreadQueue(boolean transferPriority);
 
+    /**
+     * Allocate a new thread queue for a synchronization primitive, such as a
+     * lock or a semaphore, rather than for the processor. A thread chosen
+     * from it is only handed the primitive, it does not start running.
+     *
+     * <p>
+     * By default this is the same as <tt>newThreadQueue()</tt>. Schedulers
+     * whose queues account the time threads spend running or write dispatch
+     * records return a queue that orders threads the same way but does
+     * neither.
+     *
+     * @param	transferPriority	<tt>true</tt> if the thread that has
+     *					access should receive priority from the
+     *					threads that are waiting on this queue.
+     * @return	a new thread queue.
+     */
+    public ThreadQueue newWaitQueue(boolean transferPriority) {
+	return newThreadQueue(transferPriority);
+    }
+
     /**
      * Get the priority of the specified thread. Must be called with
      * interrupts disabled.
@@ -162,6 +182,18 @@ public abstract class Scheduler {
     public void threadDestroyed(KThread thread){
         return;
     }
+
+    /**
+     * Called when the donations reaching the specified thread through the
+     * resource graph have changed, so that schedulers whose effective
+     * priorities add up donations can update any queue the thread is in.
+     * Must be called with interrupts disabled.
+     *
+     * @param	thread	the thread whose donations changed.
+     */
+    public void donationChanged(KThread thread){
+        return;
+    }
     public void printSystemStats(){
         return;
     }
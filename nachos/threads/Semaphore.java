@@ -100,7 +100,5 @@ public class Semaphore {
     }
 
     private int value;
-    private RoundRobinScheduler scheduler = new RoundRobinScheduler();
-    private ThreadQueue waitQueue =
-	scheduler.newThreadQueue(false);
+    private ThreadQueue waitQueue = ThreadedKernel.newWaitQueue(false);
 }
@@ -0,0 +1,87 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <i>sequence lock</i> protects data that is read much more often than it
+ * is written, such as kernel tables. Writers serialize on a <tt>Lock</tt> and
+ * bump a sequence number before and after each update, so it is odd while an
+ * update is in progress. Readers never block writers: they note the sequence
+ * number, read, and retry if it changed. A reader that finds an update in
+ * progress waits on the writer's lock, so it sleeps instead of spinning and
+ * donates its priority to the writer.
+ *
+ * <p>
+ * <pre>
+ * int seq;
+ * do {
+ *     seq = table.readBegin();
+ *     // copy what is needed out of the table
+ * } while (table.readRetry(seq));
+ * </pre>
+ *
+ * <p>
+ * A reader must not follow pointers it read until <tt>readRetry()</tt> has
+ * returned <tt>false</tt>, since they may have been changed halfway.
+ */
+public class SeqLock {
+    /**
+     * Allocate a new sequence lock.
+     */
+    public SeqLock() {
+        writeLock = new Lock();
+    }
+
+    public SeqLock(String name) {
+        writeLock = new Lock(name);
+    }
+
+    /**
+     * Start a read. If a write is in progress, wait until it is done.
+     *
+     * @return	the sequence number to pass to <tt>readRetry()</tt>.
+     */
+    public int readBegin() {
+        int seq;
+        while (((seq = sequence) & 1) != 0) {
+            //the writer holds the lock until the sequence is even again.
+            //Yielding instead would never let a lower priority writer run
+            writeLock.acquire();
+            writeLock.release();
+        }
+        return seq;
+    }
+
+    /**
+     * Finish a read.
+     *
+     * @param	seq	the value returned by <tt>readBegin()</tt>.
+     * @return	<tt>true</tt> if a write happened during the read, which must
+     *		then be done again.
+     */
+    public boolean readRetry(int seq) {
+        return sequence != seq;
+    }
+
+    /**
+     * Start a write, waiting for any other writer to finish.
+     */
+    public void writeBegin() {
+        writeLock.acquire();
+        sequence++;
+    }
+
+    /**
+     * Finish a write.
+     */
+    public void writeEnd() {
+        Lib.assertTrue(writeLock.isHeldByCurrentThread());
+
+        sequence++;
+        writeLock.release();
+    }
+
+    private Lock writeLock;
+    /** Odd while a write is in progress. */
+    private int sequence = 0;
+}
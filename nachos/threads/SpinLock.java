@@ -0,0 +1,108 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A lock for short critical sections on a multiprocessor. A thread that finds
+ * the lock held by a thread on another processor keeps retrying instead of
+ * sleeping, so it should only guard code that does not take long.
+ *
+ * <p>
+ * A thread holding a spinlock is not preempted by the timer, and must not
+ * sleep, since a thread spinning on the same processor would then never let
+ * it release the lock. On a uniprocessor the lock is therefore never found
+ * held.
+ */
+public class SpinLock {
+    /**
+     * Allocate a new spinlock. The lock will initially be free.
+     */
+    public SpinLock() {
+    }
+
+    public SpinLock(String name){
+        this.name = name;
+    }
+
+    /**
+     * Acquire this lock, spinning while a thread on another processor holds
+     * it. The current thread must not already hold this lock.
+     */
+    public void acquire() {
+        Lib.assertTrue(!isHeldByCurrentThread());
+
+        if (tryAcquire())
+            return;
+
+        long start = Machine.timer().getTime();
+        while (!tryAcquire()) {
+            numSpins++;
+            spins.increment();
+            KThread.spinOn(holderProcessor);
+        }
+        spinWait.record(Machine.timer().getTime() - start);
+    }
+
+    /**
+     * Acquire this lock if it is free.
+     *
+     * @return	<tt>true</tt> if the current thread now holds this lock.
+     */
+    public boolean tryAcquire() {
+        Lib.assertTrue(!isHeldByCurrentThread());
+
+        //test-and-set, nothing else executes until this returns
+        if (holder != null)
+            return false;
+
+        holder = KThread.currentThread();
+        holderProcessor = Machine.currentProcessor();
+        holder.spinLocksHeld++;
+        return true;
+    }
+
+    /**
+     * Release this lock.
+     */
+    public void release() {
+        Lib.assertTrue(isHeldByCurrentThread());
+
+        holder.spinLocksHeld--;
+        holder = null;
+    }
+
+    /**
+     * Test if the current thread holds this lock.
+     *
+     * @return	true if the current thread holds this lock.
+     */
+    public boolean isHeldByCurrentThread() {
+        return (holder == KThread.currentThread());
+    }
+
+    /**
+     * Return the number of times a thread found this lock held and had to
+     * retry.
+     *
+     * @return	the number of failed attempts to acquire this lock.
+     */
+    public long getNumSpins() {
+        return numSpins;
+    }
+
+    public String getName(){
+        if(name == null)
+            return toString();
+        else
+            return name;
+    }
+
+    private String name;
+    private KThread holder = null;
+    private int holderProcessor;
+    private long numSpins = 0;
+
+    private static Metrics.Counter spins = Metrics.counter("spinlock.spins");
+    /** Ticks spent spinning in <tt>acquire()</tt>. */
+    private static Histogram spinWait = Metrics.histogram("spinlock.wait");
+}
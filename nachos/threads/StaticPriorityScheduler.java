@@ -58,7 +58,16 @@ public class StaticPriorityScheduler extends Scheduler {
      * @return	a new priority thread queue.
      */
     public ThreadQueue newThreadQueue(boolean transferPriority) {
-        return waitQueue = new SThreadPriorityQueue(transferPriority);
+        return waitQueue = new SThreadPriorityQueue(transferPriority, true);
+    }
+
+    /**
+     * Allocate a thread queue for a lock or semaphore. It orders threads by
+     * priority like the ready queue, but the thread it hands the lock or
+     * semaphore to is not counted as scheduled.
+     */
+    public ThreadQueue newWaitQueue(boolean transferPriority) {
+        return new SThreadPriorityQueue(transferPriority, false);
     }
 
     public int getPriority(KThread thread) {
@@ -126,7 +135,7 @@ public class StaticPriorityScheduler extends Scheduler {
 
         //recalculate system level stats
         WaitingTime += t.waiting;
-        TurnaroundTime += Log.getTimeInMillis() - t.arrival;
+        TurnaroundTime += Log.getTime() - t.arrival;
         if(t.waiting > maximumWaitingTime)
             maximumWaitingTime = t.waiting;
     }
@@ -171,8 +180,9 @@ public class StaticPriorityScheduler extends Scheduler {
      * A <tt>ThreadQueue</tt> that sorts threads by priority.
      */
     class SThreadPriorityQueue extends ThreadQueue {
-        SThreadPriorityQueue(boolean transferPriority) {
+        SThreadPriorityQueue(boolean transferPriority, boolean accounting) {
             this.transferPriority = transferPriority;
+            this.accounting = accounting;
         }
 
         public void waitForAccess(KThread thread) {
@@ -183,11 +193,32 @@ public class StaticPriorityScheduler extends Scheduler {
 
         public void acquire(KThread thread) {
             Lib.assertTrue(Machine.interrupt().disabled());
-            StaticPriorityScheduler.getSThreadState(thread).acquire(this);
+            if(accounting)
+                StaticPriorityScheduler.getSThreadState(thread).acquire(this);
         }
 
         public KThread nextThread() {
             Lib.assertTrue(Machine.interrupt().disabled());
+
+            KThread temp = removeNextThread();
+            if(temp == null)
+                return null;
+
+            SThreadState ts = StaticPriorityScheduler.getSThreadState(temp);
+            if(accounting)
+                ts.scheduled();
+
+            //print stats about scheduled thread
+            //Log.write("S," + Log.getTime() + ","+
+            //         temp.getName()+","+
+            //          (transferPriority ? ts.getEffectivePriority() :
+            //          ts.getPriority()));
+
+            return temp;
+        }
+
+        public KThread removeNextThread() {
+            Lib.assertTrue(Machine.interrupt().disabled());
             
             if(waitQueue.isEmpty())
                 return null;
@@ -216,15 +247,6 @@ public class StaticPriorityScheduler extends Scheduler {
 
             waitQueue.remove(temp);
 
-            SThreadState ts = StaticPriorityScheduler.getSThreadState(temp);
-            ts.scheduled();
-
-            //print stats about scheduled thread
-            //Log.write("S," + Log.getTimeInMillis() + ","+
-            //         temp.getName()+","+
-            //          (transferPriority ? ts.getEffectivePriority() :
-            //          ts.getPriority()));
-
             return temp;
         }
 
@@ -270,7 +292,14 @@ public class StaticPriorityScheduler extends Scheduler {
          * threads to the owning thread.
          */
         public boolean transferPriority;
- 
+        /**
+         * <tt>true</tt> if threads chosen from this queue get the processor,
+         * so each choice counts as a dispatch in the statistics.
+         * <tt>false</tt> for the wait queues of locks and semaphores, which
+         * only hand the thread the lock or semaphore.
+         */
+        public boolean accounting;
+
         //create a PriorityQueue and give it a comparator
         //if 2 threads have the same priority, the one that has the earliest
         //arrival time gets priority
@@ -365,36 +394,36 @@ public class StaticPriorityScheduler extends Scheduler {
         
         //start timer for waiting time
         public void arrived(){
-            arrival = Log.getTimeInMillis();
+            arrival = Log.getTime();
             last = arrival;   
         }
 
         //if thread was running when its destroyed, add that to run time
         public void departed(){
-            long diff = Log.getTimeInMillis() - last;
+            long diff = Log.getTime() - last;
             if(wasRunning){
                 running += diff;
                 wasRunning = false;
-                last = Log.getTimeInMillis();
+                last = Log.getTime();
             }
 
         }
 
         //start timing how long it runs, add how long it has waited
         public void scheduled(){
-            long diff = Log.getTimeInMillis() - last;
+            long diff = Log.getTime() - last;
             wasRunning = true;
             waiting += diff;
-            last = Log.getTimeInMillis();
+            last = Log.getTime();
         }
 
         //start timer for waiting add how long its been running
         public void waiting(){
-            long diff = Log.getTimeInMillis() - last;
+            long diff = Log.getTime() - last;
             if(wasRunning){
                 running += diff;
                 wasRunning = false;
-                last = Log.getTimeInMillis();
+                last = Log.getTime();
             }
         }
 
@@ -0,0 +1,449 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.PriorityQueue;
+import java.util.Comparator;
+
+/**
+ * A scheduler that shares the processor in proportion to priority, without
+ * using randomness.
+ *
+ * <p>
+ * Each thread holds a number of tickets derived from its priority, so that
+ * priority <tt>priorityMinimum</tt> gets the most tickets and
+ * <tt>priorityMaximum</tt> gets one. Its stride is inversely proportional to
+ * its tickets, and every thread keeps a pass value. The thread with the
+ * lowest pass runs next and then advances its pass by its stride. Over any
+ * interval, the number of times a thread is chosen differs from its exact
+ * share by at most one, unlike a lottery scheduler.
+ *
+ * <p>
+ * If a queue transfers priority, the stride is computed from the effective
+ * priority given by the <tt>ResourceNode</tt> graph, so a lock holder runs as
+ * often as the best thread waiting for it.
+ */
+public class StrideScheduler extends Scheduler {
+    /**
+     * Allocate a new stride scheduler.
+     */
+    public StrideScheduler() {
+
+        //initialize statistics and logging
+        Log.init();
+        totalNumThreads = -1;
+        WaitingTime = 0;
+        TurnaroundTime = 0;
+        maximumWaitingTime = 0;
+    }
+
+    public void printSystemStats(){
+        Log.write("System,"+totalNumThreads+","+
+                  WaitingTime/totalNumThreads+","+
+                  TurnaroundTime/totalNumThreads+","+
+                  maximumWaitingTime);
+        Log.destroy();
+    }
+
+    /**
+     * Allocate a new stride thread queue.
+     *
+     * @param	transferPriority	<tt>true</tt> if this queue should
+     *					transfer priority from waiting threads
+     *					to the owning thread.
+     * @return	a new stride thread queue.
+     */
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+        return new StrideThreadQueue(transferPriority, true);
+    }
+
+    /**
+     * Allocate a thread queue for a lock or semaphore. It orders threads by
+     * pass like the ready queue, but choosing a thread from it does not
+     * advance the thread's pass, count as a dispatch, or get logged.
+     */
+    public ThreadQueue newWaitQueue(boolean transferPriority) {
+        return new StrideThreadQueue(transferPriority, false);
+    }
+
+    public int getPriority(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        return getStrideThreadState(thread).getPriority();
+    }
+
+    public int getEffectivePriority(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        return getStrideThreadState(thread).getEffectivePriority();
+    }
+
+    public void setPriority(KThread thread, int priority) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        Lib.assertTrue(priority >= priorityMinimum &&
+                priority <= priorityMaximum);
+
+        getStrideThreadState(thread).setPriority(priority);
+    }
+
+    public boolean increasePriority() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        KThread thread = KThread.currentThread();
+
+        int priority = getPriority(thread);
+        if (priority == priorityMinimum){
+            Machine.interrupt().restore(intStatus);
+            return false;
+        }
+
+        setPriority(thread, priority-1);
+
+        Machine.interrupt().restore(intStatus);
+        return true;
+    }
+
+    public boolean decreasePriority() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        KThread thread = KThread.currentThread();
+
+        int priority = getPriority(thread);
+        if (priority == priorityMaximum){
+            Machine.interrupt().restore(intStatus);
+            return false;
+        }
+
+        setPriority(thread, priority+1);
+
+        Machine.interrupt().restore(intStatus);
+        return true;
+    }
+
+    public void threadCreated(KThread thread){//Keeps track of number of threads.
+        totalNumThreads++;
+        getStrideThreadState(thread).arrived();
+    }
+
+    public void threadDestroyed(KThread thread){//Writes the stats of the finished thread and adds them to the system level stats.
+        StrideThreadState t = getStrideThreadState(thread);
+        t.departed();
+        Log.write(thread.getName()+","+
+                  t.arrival+","+
+                  t.running+","+
+                  t.waiting+","+
+                  Log.getTime());
+
+        //add to system level stats
+        WaitingTime += t.waiting;
+        TurnaroundTime += Log.getTime() - t.arrival;
+        if(t.waiting > maximumWaitingTime)
+            maximumWaitingTime = t.waiting;
+    }
+
+    /**
+     * The default priority for a new thread.
+     */
+    public static final int priorityDefault = 1;
+    /**
+     * The minimum priority that a thread can have. Threads with this
+     * priority get the largest share.
+     */
+    public static final int priorityMinimum = 0;
+    /**
+     * The maximum priority that a thread can have. Threads with this
+     * priority get the smallest share.
+     */
+    public static final int priorityMaximum =
+    Integer.parseInt(Config.getString("scheduler.maxPriorityValue"));
+
+    /**
+     * The stride of a thread holding a single ticket. Large enough that the
+     * strides of every priority are distinct.
+     */
+    public static final long strideOne = 1 << 20;
+
+    private int totalNumThreads;
+    private long WaitingTime;
+    private long TurnaroundTime;
+    private long maximumWaitingTime;
+
+    /**
+     * Return the scheduling state of the specified thread.
+     *
+     * @param	thread	the thread whose scheduling state to return.
+     * @return	the scheduling state of the specified thread.
+     */
+    public static StrideThreadState getStrideThreadState(KThread kthread) {
+        if (kthread.schedulingState == null)
+            kthread.schedulingState = new StrideThreadState(kthread);
+
+        return (StrideThreadState) kthread.schedulingState;
+    }
+}
+
+    /**
+     * A <tt>ThreadQueue</tt> that sorts threads by pass.
+     */
+    class StrideThreadQueue extends ThreadQueue {
+        StrideThreadQueue(boolean transferPriority, boolean accounting) {
+            this.transferPriority = transferPriority;
+            this.accounting = accounting;
+        }
+
+        public void waitForAccess(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+            StrideThreadState ts = StrideScheduler.getStrideThreadState(thread);
+            ts.waitForAccess(this);
+
+            //a thread that has been away (new, or blocked elsewhere) should
+            //not be able to catch up on the turns it missed
+            if(accounting && ts.pass < globalPass)
+                ts.pass = globalPass;
+
+            ts.sequence = numInserted++;
+            waitQueue.add(thread);
+        }
+
+        public void acquire(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+            if(accounting)
+                StrideScheduler.getStrideThreadState(thread).acquire(this);
+        }
+
+        public KThread nextThread() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            if(waitQueue.isEmpty())
+                return null;
+
+            KThread temp = (KThread) waitQueue.poll();
+            if(!accounting)
+                return temp;
+
+            StrideThreadState ts = StrideScheduler.getStrideThreadState(temp);
+
+            //charge it for the turn it is about to get
+            globalPass = ts.pass;
+            ts.pass += ts.getStride(transferPriority);
+            ts.scheduled();
+
+            //write stats about scheduled thread
+            Log.write(Log.getTime() + ","+
+                      temp.getName()+","+
+                      (transferPriority ? ts.getEffectivePriority() :
+                       ts.getPriority()));
+
+            return temp;
+        }
+
+        //takes the lowest pass without charging it a stride
+        public KThread removeNextThread() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            return (KThread) waitQueue.poll();
+        }
+
+        /**
+         * Return the next thread that <tt>nextThread()</tt> would return,
+         * without modifying the state of this queue.
+         *
+         * @return	the next thread that <tt>nextThread()</tt> would
+         *		return.
+         */
+        protected KThread pickNextThread() {
+            if(waitQueue.isEmpty())
+                return null;
+
+            return (KThread) waitQueue.peek();
+        }
+
+        public void print() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+            // implement me (if you want)
+        }
+
+        /**
+         * <tt>true</tt> if this queue should transfer priority from waiting
+         * threads to the owning thread.
+         */
+        public boolean transferPriority;
+        /**
+         * <tt>true</tt> if threads chosen from this queue get the processor,
+         * so each choice advances the thread's pass, counts as a dispatch in
+         * the statistics and is logged. <tt>false</tt> for the wait queues of
+         * locks and semaphores, which only hand the thread the lock or
+         * semaphore.
+         */
+        public boolean accounting;
+
+        //the pass of the last thread chosen; passes never move backwards
+        private long globalPass = 0;
+        private long numInserted = 0;
+
+        //lowest pass first, if 2 threads have the same pass, the one that was
+        //queued first gets priority
+        private PriorityQueue waitQueue = new PriorityQueue(10, new
+        Comparator<KThread>() {
+            public int compare(KThread t1, KThread t2){
+                StrideThreadState s1, s2;
+                s1 = StrideScheduler.getStrideThreadState(t1);
+                s2 = StrideScheduler.getStrideThreadState(t2);
+                if(s1.pass < s2.pass)
+                    return -1;
+                else if(s1.pass > s2.pass)
+                    return 1;
+                else if(s1.sequence < s2.sequence)
+                    return -1;
+                else if(s1.sequence > s2.sequence)
+                    return 1;
+                else
+                    return 0;
+            }
+        });
+    }
+
+    /**
+     * The scheduling state of a thread. This includes the thread's priority
+     * and pass, and the statistics kept for the log.
+     *
+     * @see	nachos.threads.KThread#schedulingState
+     */
+    class StrideThreadState {
+        /**
+         * Allocate a new <tt>StrideThreadState</tt> object and associate it
+         * with the specified thread.
+         *
+         * @param	thread	the thread this state belongs to.
+         */
+        public StrideThreadState(KThread thread) {
+            this.thread = thread;
+
+            priority = StrideScheduler.priorityDefault;
+        }
+
+        /**
+         * Return the priority of the associated thread.
+         *
+         * @return	the priority of the associated thread.
+         */
+        public int getPriority() {
+            return priority;
+        }
+
+        /**
+         * Return the effective priority of the associated thread.
+         *
+         * @return	the effective priority of the associated thread.
+         */
+        public int getEffectivePriority() {
+            return thread.getMin();
+        }
+
+        /**
+         * Return how far the pass of the associated thread advances each time
+         * it is chosen.
+         *
+         * @param	donated	<tt>true</tt> if the effective priority should be
+         *			used instead of the base priority.
+         * @return	the stride of the associated thread.
+         */
+        public long getStride(boolean donated) {
+            int p = donated ? getEffectivePriority() : getPriority();
+
+            if(p < StrideScheduler.priorityMinimum)
+                p = StrideScheduler.priorityMinimum;
+            else if(p > StrideScheduler.priorityMaximum)
+                p = StrideScheduler.priorityMaximum;
+
+            //priorityMaximum gets 1 ticket, each step up one more
+            long tickets = StrideScheduler.priorityMaximum + 1 - p;
+            return StrideScheduler.strideOne / tickets;
+        }
+
+        /**
+         * Set the priority of the associated thread to the specified value.
+         *
+         * @param	priority	the new priority.
+         */
+        public void setPriority(int priority) {
+            if (this.priority == priority)
+                return;
+
+            this.priority = priority;
+            thread.resetPriority();
+        }
+
+        /**
+         * Called when <tt>waitForAccess(thread)</tt> (where <tt>thread</tt> is
+         * the associated thread) is invoked on the specified queue.
+         *
+         * @param	waitQueue	the queue that the associated thread is
+         *				now waiting on.
+         *
+         * @see	nachos.threads.ThreadQueue#waitForAccess
+         */
+        public void waitForAccess(StrideThreadQueue waitQueue) {
+            waiting();
+        }
+
+        /**
+         * Called when the associated thread has acquired access to whatever is
+         * guarded by <tt>waitQueue</tt>.
+         *
+         * @see	nachos.threads.ThreadQueue#acquire
+         * @see	nachos.threads.ThreadQueue#nextThread
+         */
+        public void acquire(StrideThreadQueue waitQueue) {
+            scheduled();
+        }
+
+        //start the waiting timer
+        public void arrived(){
+            arrival = Log.getTime();
+            last = arrival;
+        }
+
+        //add the time it was running before it ended
+        public void departed(){
+            long diff = Log.getTime() - last;
+            if(wasRunning){
+                running += diff;
+                wasRunning = false;
+                last = Log.getTime();
+            }
+        }
+
+        //add the time its been waiting and start run timer
+        public void scheduled(){
+            long diff = Log.getTime() - last;
+            wasRunning = true;
+            waiting += diff;
+            last = Log.getTime();
+        }
+
+        //add running time and start wait timer
+        public void waiting(){
+            long diff = Log.getTime() - last;
+            if(wasRunning){
+                running += diff;
+                wasRunning = false;
+                last = Log.getTime();
+            }
+        }
+
+        /** The thread with which this object is associated. */
+        protected KThread thread;
+        /** The priority of the associated thread. */
+        protected int priority;
+        /** The virtual time at which the associated thread runs next. */
+        long pass = 0;
+        /** The order in which this thread was queued, to break ties. */
+        long sequence;
+        public long arrival = 0;
+        public long waiting = 0;
+        public long running = 0;
+        public long last = 0;
+        private boolean wasRunning = false;
+    }
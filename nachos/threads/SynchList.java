@@ -14,7 +14,7 @@ public class SynchList {
     public SynchList() {
 	list = new LinkedList();
 	lock = new Lock();
-	listEmpty = new Condition(lock);
+	listEmpty = new Condition2(lock);
     }
 
     /**
@@ -83,6 +83,6 @@ public class SynchList {
 
     private LinkedList list;
     private Lock lock;
-    private Condition listEmpty;
+    private Condition2 listEmpty;
 }
 
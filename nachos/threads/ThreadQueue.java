@@ -76,6 +76,17 @@ public abstract class ThreadQueue {
      */
     public abstract KThread nextThread();
 
+    /**
+     * Remove and return the thread that <tt>nextThread()</tt> would choose,
+     * without giving it access. The thread does not acquire anything, and
+     * nothing is recorded about it, so it can be moved to another queue with
+     * <tt>waitForAccess()</tt> as if it had never been chosen.
+     *
+     * @return	the thread removed, or <tt>null</tt> if there are no threads
+     *		waiting.
+     */
+    public abstract KThread removeNextThread();
+
     /**
      * Notify this thread queue that a thread has received access, without
      * going through <tt>request()</tt> and <tt>nextThread()</tt>. For example,
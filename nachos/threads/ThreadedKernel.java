@@ -69,9 +69,29 @@ public class ThreadedKernel extends Kernel {
      * Terminate this kernel. Never returns.
      */
     public void terminate() {
+	if (Machine.numProcessors() > 1)
+	    KThread.printProcessorStats();
+
 	Machine.halt();
     }
 
+    /**
+     * Allocate a new thread queue for a synchronization primitive, from the
+     * scheduler in use. Primitives created before the kernel has a scheduler,
+     * for example in static initializers, get a round robin queue.
+     *
+     * @param	transferPriority	<tt>true</tt> if this queue should
+     *					transfer priority from waiting threads
+     *					to the owning thread.
+     * @return	a new thread queue.
+     */
+    public static ThreadQueue newWaitQueue(boolean transferPriority) {
+	if (scheduler == null)
+	    return new RoundRobinScheduler().newThreadQueue(transferPriority);
+
+	return scheduler.newWaitQueue(transferPriority);
+    }
+
     /** Globally accessible reference to the scheduler. */
     public static Scheduler scheduler = null;
     /** Globally accessible reference to the alarm. */
@@ -0,0 +1,46 @@
+package nachos.threads.test;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+public class Alarm1 implements TestScheduler {
+    public void test(){
+        Lib.debug('t', "Enter KThread.selfTest");
+
+        //create sleepers whose wake order differs from their fork order
+        for(int i=0; i<delays.length; i++){
+            new KThread(new Sleeper(delays[i])).setName("s"+i).fork();
+        }
+
+        //join would be nicer, but the main thread only needs to outlive
+        //the sleepers, so it sleeps longer than all of them
+        ThreadedKernel.alarm.waitUntil(5000);
+        System.out.println("*** " + woken + " of " + delays.length +
+                " sleepers woke");
+
+        ThreadedKernel.scheduler.printSystemStats();
+    }
+
+    //sleeps for a number of ticks and reports how late it woke up
+    private static class Sleeper implements Runnable {
+        Sleeper(long delay) {
+            this.delay = delay;
+        }
+
+        public void run() {
+            long start = Machine.timer().getTime();
+            ThreadedKernel.alarm.waitUntil(delay);
+            long late = Machine.timer().getTime() - start - delay;
+
+            Lib.assertTrue(late >= 0);
+            woken++;
+            System.out.println("*** " + KThread.currentThread().getName() +
+                    " slept " + delay + " ticks, woke " + late + " late");
+        }
+
+        private long delay;
+    }
+
+    private static final long[] delays = {3000, 1000, 2000, 700, 1000};
+    private static int woken = 0;
+}
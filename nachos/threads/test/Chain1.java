@@ -0,0 +1,74 @@
+package nachos.threads.test;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+public class Chain1 implements TestScheduler {
+    public void test(){
+        Lib.debug('t', "Enter KThread.selfTest");
+
+        boolean intStatus = Machine.interrupt().disable();
+
+        //a chain long enough to overflow the stack if propagation recursed
+        Node[] chain = new Node[length];
+        for(int i=0; i<length; i++){
+            chain[i] = new Node(100);
+            if(i > 0)
+                chain[i-1].addEdge(chain[i]);
+        }
+
+        //a better priority at the head reaches the tail
+        chain[0].setPriority(5);
+        System.out.println("*** tail of " + length + " nodes has min " +
+                chain[length-1].getMin());
+
+        //cutting the chain in the middle gives the back half its own
+        //priority back
+        chain[length/2 - 1].rmEdge(chain[length/2]);
+        System.out.println("*** after cut, middle has min " +
+                chain[length/2].getMin() + ", tail has min " +
+                chain[length-1].getMin());
+
+        //raising the head's priority undoes the donation
+        chain[0].setPriority(100);
+        System.out.println("*** after reset, front has min " +
+                chain[length/2 - 1].getMin());
+
+        //closing a loop is a deadlock
+        Node a = new Node(100), b = new Node(100), c = new Node(100);
+        a.addEdge(b);
+        b.addEdge(c);
+        c.addEdge(a);
+        System.out.println("*** cycles found: " + Node.cycles);
+
+        Machine.interrupt().restore(intStatus);
+
+        ThreadedKernel.scheduler.printSystemStats();
+    }
+
+    //a node with a settable priority and no thread behind it
+    private static class Node extends ResourceNode {
+        Node(int priority) {
+            this.priority = priority;
+            setMyPriority();
+        }
+
+        void setPriority(int priority) {
+            this.priority = priority;
+            resetPriority();
+        }
+
+        protected int getMyPriority() {
+            return priority;
+        }
+
+        protected void cycleDetected(ResourceNode n) {
+            cycles++;
+        }
+
+        private int priority;
+        static int cycles = 0;
+    }
+
+    private static final int length = 100000;
+}
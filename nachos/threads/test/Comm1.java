@@ -0,0 +1,137 @@
+package nachos.threads.test;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+public class Comm1 implements TestScheduler {
+    public void test(){
+        Lib.debug('t', "Enter KThread.selfTest");
+
+        //speakers and listeners pair off through the communicator, the
+        //listeners start first half of the time
+        for(int i=0; i<numPairs; i++){
+            KThread speaker = new KThread(new Speaker(i)).setName("s"+i);
+            KThread listener = new KThread(new Listener(i)).setName("l"+i);
+            if(i % 2 == 0){
+                speaker.fork();
+                listener.fork();
+            }
+            else{
+                listener.fork();
+                speaker.fork();
+            }
+        }
+
+        //a producer sends in batches larger than the buffer, two consumers
+        //take what they can
+        new KThread(new Producer()).setName("producer").fork();
+        for(int i=0; i<2; i++)
+            new KThread(new Consumer()).setName("c"+i).fork();
+
+        //yield main thread until everyone is done
+        while(finished < 2*numPairs + 3)
+            KThread.currentThread().yield();
+
+        System.out.println("*** communicator: heard " + heard + " words, sum " +
+                heardSum + ", expected " + expectedSum());
+        System.out.println("*** bounded: received " + received +
+                " words, sum " + receivedSum + ", in order " + inOrder);
+
+        ThreadedKernel.scheduler.printSystemStats();
+    }
+
+    private static int expectedSum(){
+        int sum = 0;
+        for(int i=0; i<numPairs; i++)
+            for(int j=0; j<numWords; j++)
+                sum += i*100 + j;
+        return sum;
+    }
+
+    //says numWords words, each of them must be heard exactly once
+    private static class Speaker implements Runnable {
+        Speaker(int which) {
+            this.which = which;
+        }
+
+        public void run() {
+            for(int j=0; j<numWords; j++)
+                comm.speak(which*100 + j);
+            finished++;
+        }
+
+        private int which;
+    }
+
+    private static class Listener implements Runnable {
+        Listener(int which) {
+            this.which = which;
+        }
+
+        public void run() {
+            for(int j=0; j<numWords; j++){
+                heardSum += comm.listen();
+                heard++;
+            }
+            finished++;
+        }
+
+        private int which;
+    }
+
+    //sends 0..numSent-1 in batches of 10
+    private static class Producer implements Runnable {
+        public void run() {
+            int[] batch = new int[10];
+            for(int sent=0; sent<numSent; sent+=batch.length){
+                for(int i=0; i<batch.length; i++)
+                    batch[i] = sent + i;
+                buffer.speak(batch, 0, batch.length);
+            }
+
+            //tell both consumers to stop
+            buffer.speak(-1);
+            buffer.speak(-1);
+            finished++;
+        }
+    }
+
+    //words must come out in the order they went in, so each consumer sees
+    //them increasing
+    private static class Consumer implements Runnable {
+        public void run() {
+            int[] words = new int[4];
+            int last = -1;
+            while(true){
+                int n = buffer.listen(words, 0, 1 + received % words.length);
+                for(int i=0; i<n; i++){
+                    if(words[i] == -1){
+                        //pass on a stop meant for the other consumer
+                        for(int j=i+1; j<n; j++)
+                            buffer.speak(words[j]);
+                        finished++;
+                        return;
+                    }
+                    if(words[i] <= last)
+                        inOrder = false;
+                    last = words[i];
+                    receivedSum += words[i];
+                    received++;
+                }
+                KThread.currentThread().yield();
+            }
+        }
+    }
+
+    private static final int numPairs = 4;
+    private static final int numWords = 5;
+    private static final int numSent = 100;
+    private static Communicator comm = new Communicator();
+    private static BoundedCommunicator buffer = new BoundedCommunicator(8);
+    private static int heard = 0;
+    private static int heardSum = 0;
+    private static int received = 0;
+    private static int receivedSum = 0;
+    private static boolean inOrder = true;
+    private static int finished = 0;
+}
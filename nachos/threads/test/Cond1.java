@@ -0,0 +1,61 @@
+package nachos.threads.test;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+public class Cond1 implements TestScheduler {
+    public void test(){
+        Lib.debug('t', "Enter KThread.selfTest");
+
+        //disable interrupts because we need to set priorities of threads
+        boolean intStatus = Machine.interrupt().disable();
+
+        //create sleepers whose priorities are not in fork order
+        for(int i=0; i<priorities.length; i++){
+            new KThread(new Sleeper(i), priorities[i]).setName("t"+i).fork();
+        }
+
+        //set main thread to lowest priority so every sleeper gets to sleep
+        ThreadedKernel.scheduler.setPriority(KThread.currentThread(),
+                StaticPriorityScheduler.priorityMaximum);
+
+        //restore interrupt state
+        Machine.interrupt().restore(intStatus);
+
+        KThread.currentThread().yield();
+
+        //wake them one at a time, best priority should come first
+        for(int i=0; i<priorities.length; i++){
+            lock.acquire();
+            Lib.assertTrue(asleep == priorities.length - i);
+            cond.wake();
+            lock.release();
+            KThread.currentThread().yield();
+        }
+
+        ThreadedKernel.scheduler.printSystemStats();
+    }
+
+    private static class Sleeper implements Runnable {
+        Sleeper(int which) {
+            this.which = which;
+        }
+
+        public void run() {
+            lock.acquire();
+            asleep++;
+            cond.sleep();
+            asleep--;
+            System.out.println("*** thread " + which + " with priority " +
+                    priorities[which] + " woke");
+            lock.release();
+        }
+
+        private int which;
+    }
+
+    private static final int[] priorities = {12, 3, 20, 7, 3};
+    private static int asleep = 0;
+    private static Lock lock = new Lock("cond");
+    private static Condition2 cond = new Condition2(lock, true);
+}
@@ -0,0 +1,108 @@
+package nachos.threads.test;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.userprog.SynchConsole;
+
+/**
+ * Writes and reads more than a buffer's worth through a
+ * <tt>SynchConsole</tt>. Needs a line longer than
+ * <tt>SynchConsole.bufferSize</tt> on standard input, e.g.
+ *
+ * <pre>
+ * echo "the quick brown fox jumps over the lazy dog" | java nachos.machine.Machine -[] conf/PA2/Console1.conf
+ * </pre>
+ */
+public class Console1 implements TestScheduler {
+    public void test(){
+        Lib.debug('t', "Enter KThread.selfTest");
+
+        console = new SynchConsole(Machine.console());
+
+        //each writer sends a line longer than the output buffer, so it has
+        //to wait for half of it to drain while the other waits its turn
+        for(int i=0; i<2; i++)
+            new KThread(new Writer((char) ('a'+i))).setName("w"+i).fork();
+        new KThread(new Reader()).setName("reader").fork();
+
+        //yield main thread until the writers are done
+        while(numWritten < 2)
+            KThread.currentThread().yield();
+
+        //then give the reader a while to read its line
+        long deadline = Machine.timer().getTime() + 100000;
+        while(!readDone && Machine.timer().getTime() < deadline)
+            KThread.currentThread().yield();
+
+        System.out.println("*** writers finished in order " + written);
+        Lib.assertTrue(readDone, "no line on standard input");
+
+        String line = new String(readBuf, 0, numRead - 1);
+        System.out.println("*** read " + numRead + " bytes in " + numReadCalls +
+                           " calls: " + line);
+        Lib.assertTrue(numRead > bufferSize + 1, "the line on standard input " +
+                       "must be longer than " + bufferSize + " bytes");
+
+        //the line did not fit, so the first read got a full buffer and the
+        //one byte the console was holding back until there was room for it
+        Lib.assertTrue(firstRead == bufferSize + 1,
+                       "first read returned " + firstRead + " bytes");
+        Lib.assertTrue(numReadCalls > 1);
+
+        ThreadedKernel.scheduler.printSystemStats();
+    }
+
+    //writes a line of its letter, longer than the output buffer
+    private static class Writer implements Runnable {
+        Writer(char letter) {
+            this.letter = letter;
+        }
+
+        public void run() {
+            byte[] buf = new byte[lineLength];
+            for(int i=0; i<lineLength-1; i++)
+                buf[i] = (byte) letter;
+            buf[lineLength-1] = '\n';
+
+            Lib.assertTrue(console.write(buf, 0, lineLength) == lineLength);
+
+            written += KThread.currentThread().getName() + " ";
+            numWritten++;
+        }
+
+        private char letter;
+    }
+
+    //waits until the writers are done, by which time the input has filled
+    //the buffer, and then reads a line a buffer at a time
+    private static class Reader implements Runnable {
+        public void run() {
+            while(numWritten < 2)
+                KThread.currentThread().yield();
+
+            do{
+                int n = console.readLine(readBuf, numRead,
+                                         readBuf.length - numRead);
+                if(numReadCalls++ == 0)
+                    firstRead = n;
+                numRead += n;
+            } while(readBuf[numRead-1] != '\n' && numRead < readBuf.length);
+
+            readDone = true;
+        }
+    }
+
+    private static final int bufferSize =
+        Config.getInteger("SynchConsole.bufferSize", 256);
+    private static final int lineLength = 2*bufferSize + 8;
+
+    private static SynchConsole console;
+    private static String written = "";
+    private static int numWritten = 0;
+
+    private static byte[] readBuf = new byte[1024];
+    private static int numRead = 0;
+    private static int numReadCalls = 0;
+    private static int firstRead = 0;
+    private static boolean readDone = false;
+}
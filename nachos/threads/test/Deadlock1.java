@@ -0,0 +1,55 @@
+package nachos.threads.test;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+public class Deadlock1 implements TestScheduler {
+    public void test(){
+        Lib.debug('t', "Enter KThread.selfTest");
+
+        //two threads take the same two locks in opposite order
+        new KThread(new Taker(first, second)).setName("a").fork();
+        new KThread(new Taker(second, first)).setName("b").fork();
+
+        //yield main thread until both are stuck
+        while(holding < 2 || blocked < 2)
+            KThread.currentThread().yield();
+
+        //the cycle was logged when the second one blocked, the dump shows
+        //every edge still in the graph
+        ResourceNode.dumpGraph();
+
+        System.out.println("*** both threads are deadlocked");
+
+        ThreadedKernel.scheduler.printSystemStats();
+    }
+
+    //holds one lock, waits until the other thread holds its lock, then
+    //asks for that one
+    private static class Taker implements Runnable {
+        Taker(Lock mine, Lock theirs) {
+            this.mine = mine;
+            this.theirs = theirs;
+        }
+
+        public void run() {
+            mine.acquire();
+            holding++;
+            while(holding < 2)
+                KThread.currentThread().yield();
+
+            blocked++;
+            theirs.acquire();
+
+            Lib.assertNotReached("deadlocked thread got the lock");
+        }
+
+        private Lock mine;
+        private Lock theirs;
+    }
+
+    private static int holding = 0;
+    private static int blocked = 0;
+    private static Lock first = new Lock("first");
+    private static Lock second = new Lock("second");
+}
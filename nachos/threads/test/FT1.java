@@ -0,0 +1,101 @@
+package nachos.threads.test;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+public class FT1 implements TestScheduler {
+    public void test(){
+        Lib.debug('t', "Enter KThread.selfTest");
+
+        //disable interrupts because we need to set priorities of threads
+        boolean intStatus = Machine.interrupt().disable();
+
+        //create threads whose weights shrink as their priority value grows
+        for(int i=0; i<numThreads; i++){
+            new KThread(new Share(i), priority(i)).setName("t"+i).fork();
+        }
+
+        //create a sleeper that blocks on a semaphore until the shares are
+        //half done, it should run soon after waking without taking over
+        new KThread(new Sleeper(), FairScheduler.priorityDefault)
+            .setName("sleeper").fork();
+
+        //restore interrupt state
+        Machine.interrupt().restore(intStatus);
+
+        //yield main thread until every thread has had its share
+        while(finished < numThreads + 1)
+            KThread.currentThread().yield();
+
+        for(int i=0; i<numThreads; i++){
+            System.out.println("*** thread " + i + " with priority " +
+                    priority(i) + " ran " + runs[i] + " of " + totalRuns +
+                    " times");
+        }
+
+        ThreadedKernel.scheduler.printSystemStats();
+    }
+
+    private static int priority(int i){
+        return FairScheduler.priorityDefault + 3*i;
+    }
+
+    //runs until the threads have run maxRuns times between them
+    private static class Share implements Runnable {
+        Share(int which) {
+            this.which = which;
+        }
+
+        public void run() {
+            while(totalRuns < maxRuns){
+                runs[which]++;
+                totalRuns++;
+                if(totalRuns == maxRuns/2){
+                    //the sleeper must really be blocked for its credit to
+                    //be tested
+                    Lib.assertTrue(sleeping);
+                    wake.V();
+                }
+                KThread.currentThread().yield();
+            }
+            finished++;
+        }
+
+        private int which;
+    }
+
+    //sleeps on the semaphore, then reports how many runs passed before it
+    //got the processor back, and how many times in a row it ran before the
+    //others got a turn, which is bounded by its sleeper credit
+    private static class Sleeper implements Runnable {
+        public void run() {
+            int sleptAt = totalRuns;
+            sleeping = true;
+            wake.P();
+            sleeping = false;
+
+            int wokeAt = totalRuns;
+            int inARow = 0;
+            int seen;
+            do{
+                inARow++;
+                seen = totalRuns;
+                KThread.currentThread().yield();
+            } while(totalRuns == seen);
+
+            System.out.println("*** sleeper slept through " +
+                    (wokeAt - sleptAt) + " runs, woke after " +
+                    (wokeAt - maxRuns/2) + " more, then ran " + inARow +
+                    " times in a row");
+            finished++;
+        }
+    }
+
+    private static final int numThreads = 4;
+    private static final int maxRuns = 300;
+    private static int[] runs = new int[numThreads];
+    private static int totalRuns = 0;
+    private static int finished = 0;
+    private static boolean sleeping = false;
+    private static Semaphore wake = new Semaphore(0);
+}
@@ -0,0 +1,85 @@
+package nachos.threads.test;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+public class FairLock1 implements TestScheduler {
+    public void test(){
+        Lib.debug('t', "Enter KThread.selfTest");
+
+        //main holds the lock until every waiter has blocked on it
+        testLock.acquire();
+
+        //the busy thread runs for a while and blocks on the lock first, the
+        //sleepers only wake once it is done, so they block later with less
+        //virtual runtime and should be handed the lock before it. They all
+        //come back with the same virtual runtime, so among themselves they
+        //should get it in the order they blocked
+        new KThread(new Busy()).setName("busy").fork();
+        for(int i=0; i<numSleepers; i++)
+            new KThread(new Waiter()).setName("sleeper"+i).fork();
+
+        //yield main thread until every waiter is blocked on the lock
+        while(numBlocked < numSleepers + 1)
+            KThread.currentThread().yield();
+
+        testLock.release();
+
+        //yield main thread until every waiter has had the lock
+        while(numAcquired < numSleepers + 1)
+            KThread.currentThread().yield();
+
+        Lib.assertTrue(blocked.startsWith("busy "));
+        String expected = blocked.substring("busy ".length()) + "busy ";
+
+        System.out.println("*** blocked on lock: " + blocked);
+        System.out.println("*** lock handed to " + order);
+        Lib.assertTrue(order.equals(expected),
+                       "lock handed off out of virtual runtime order");
+
+        ThreadedKernel.scheduler.printSystemStats();
+    }
+
+    //blocks on the lock, counting itself as blocked in the same atomic step
+    private static void acquire(){
+        boolean intStatus = Machine.interrupt().disable();
+        numBlocked++;
+        blocked += KThread.currentThread().getName() + " ";
+        testLock.acquire();
+        Machine.interrupt().restore(intStatus);
+
+        order += KThread.currentThread().getName() + " ";
+        numAcquired++;
+        testLock.release();
+    }
+
+    //runs for a while, then lets the sleepers go and blocks on the lock
+    private static class Busy implements Runnable {
+        public void run() {
+            for(int i=0; i<busyRuns; i++)
+                KThread.currentThread().yield();
+
+            for(int i=0; i<numSleepers; i++)
+                go.V();
+
+            acquire();
+        }
+    }
+
+    //sleeps until the busy thread is done, then blocks on the lock
+    private static class Waiter implements Runnable {
+        public void run() {
+            go.P();
+            acquire();
+        }
+    }
+
+    private static final int numSleepers = 3;
+    private static final int busyRuns = 100;
+    private static Lock testLock = new Lock();
+    private static Semaphore go = new Semaphore(0);
+    private static int numBlocked = 0;
+    private static int numAcquired = 0;
+    private static String blocked = "";
+    private static String order = "";
+}
@@ -0,0 +1,94 @@
+package nachos.threads.test;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+public class LT1 implements TestScheduler {
+    public void test(){
+        Lib.debug('t', "Enter KThread.selfTest");
+
+        //disable interrupts because we need to set tickets of threads
+        boolean intStatus = Machine.interrupt().disable();
+
+        //create threads holding 1, 2, 4 and 8 tickets
+        for(int i=0; i<numThreads; i++){
+            new KThread(new Share(i), 1 << i).setName("t"+i).fork();
+        }
+
+        //create a holder and a waiter so that tickets get donated through
+        //the lock
+        new KThread(new Holder(), 1).setName("holder").fork();
+        new KThread(new Waiter(), 8).setName("waiter").fork();
+
+        //restore interrupt state
+        Machine.interrupt().restore(intStatus);
+
+        //yield main thread until every thread has had its share
+        while(finished < numThreads + 2)
+            KThread.currentThread().yield();
+
+        for(int i=0; i<numThreads; i++){
+            System.out.println("*** thread " + i + " with " + (1 << i) +
+                    " tickets ran " + runs[i] + " of " + totalRuns +
+                    " times");
+        }
+
+        ThreadedKernel.scheduler.printSystemStats();
+    }
+
+    //runs until the threads have run maxRuns times between them
+    private static class Share implements Runnable {
+        Share(int which) {
+            this.which = which;
+        }
+
+        public void run() {
+            while(totalRuns < maxRuns){
+                runs[which]++;
+                totalRuns++;
+                KThread.currentThread().yield();
+            }
+            finished++;
+        }
+
+        private int which;
+    }
+
+    //grabs the lock and holds it for a while with only its own ticket
+    private static class Holder implements Runnable {
+        public void run() {
+            lock.acquire();
+            held = true;
+            for(int i=0; i<5; i++){
+                boolean intStatus = Machine.interrupt().disable();
+                System.out.println("*** holder has " +
+                        ThreadedKernel.scheduler.getEffectivePriority() +
+                        " tickets");
+                Machine.interrupt().restore(intStatus);
+                KThread.currentThread().yield();
+            }
+            lock.release();
+            finished++;
+        }
+    }
+
+    //blocks on the lock, donating its tickets to the holder
+    private static class Waiter implements Runnable {
+        public void run() {
+            while(!held)
+                KThread.currentThread().yield();
+            lock.acquire();
+            System.out.println("*** waiter got the lock");
+            lock.release();
+            finished++;
+        }
+    }
+
+    private static final int numThreads = 4;
+    private static final int maxRuns = 300;
+    private static int[] runs = new int[numThreads];
+    private static int totalRuns = 0;
+    private static int finished = 0;
+    private static boolean held = false;
+    private static Lock lock = new Lock("lottery");
+}
@@ -0,0 +1,158 @@
+package nachos.threads.test;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+public class RW1 implements TestScheduler {
+    public void test(){
+        Lib.debug('t', "Enter KThread.selfTest");
+
+        boolean intStatus = Machine.interrupt().disable();
+        KThread main = KThread.currentThread();
+        ThreadedKernel.scheduler.setPriority(main,
+                StaticPriorityScheduler.priorityMaximum);
+        Machine.interrupt().restore(intStatus);
+
+        //main holds a read lock, so a writer has to wait and a reader that
+        //arrives after it has to wait behind it
+        rw.acquireRead();
+        intStatus = Machine.interrupt().disable();
+        new KThread(new Writer("w0"), 10).setName("w0").fork();
+        Machine.interrupt().restore(intStatus);
+        KThread.currentThread().yield();
+        intStatus = Machine.interrupt().disable();
+        new KThread(new Reader("r0"), 5).setName("r0").fork();
+        Machine.interrupt().restore(intStatus);
+        KThread.currentThread().yield();
+        Lib.assertTrue(order.length() == 0);
+
+        //the waiting writer and reader both donate to main through the lock
+        intStatus = Machine.interrupt().disable();
+        int p = ThreadedKernel.scheduler.getEffectivePriority(main);
+        Machine.interrupt().restore(intStatus);
+        System.out.println("*** reader holding lock runs at priority " + p);
+        Lib.assertTrue(p == 5);
+
+        rw.releaseRead();
+        KThread.currentThread().yield();
+        System.out.println("*** order " + order);
+        Lib.assertTrue(order.equals("w0 r0 "));
+
+        //readers share the lock while a seqlock writer updates a pair that
+        //must always be read as equal
+        intStatus = Machine.interrupt().disable();
+        //readers run at main's priority so the writer gets turns too
+        for(int i=0; i<numReaders; i++){
+            new KThread(new TableReader(),
+                    StaticPriorityScheduler.priorityMaximum)
+                .setName("t"+i).fork();
+        }
+        Machine.interrupt().restore(intStatus);
+        for(int i=0; i<numWrites; i++){
+            table.writeBegin();
+            first = i;
+            KThread.currentThread().yield();
+            second = i;
+            table.writeEnd();
+            KThread.currentThread().yield();
+        }
+        done = true;
+        while(readersDone < numReaders)
+            KThread.currentThread().yield();
+        System.out.println("*** seqlock readers never saw a torn update");
+
+        //a reader that outranks the writer and finds a write in progress has
+        //to let the writer finish, spinning would keep the writer off the
+        //processor for good
+        intStatus = Machine.interrupt().disable();
+        new KThread(new SlowWriter(), 20).setName("sw").fork();
+        Machine.interrupt().restore(intStatus);
+        while(!fastReaderDone)
+            KThread.currentThread().yield();
+        System.out.println("*** reader at priority 1 waited for the writer " +
+                "at priority 20");
+
+        ThreadedKernel.scheduler.printSystemStats();
+    }
+
+    private static class Writer implements Runnable {
+        Writer(String name) {
+            this.name = name;
+        }
+
+        public void run() {
+            rw.acquireWrite();
+            order += name + " ";
+            rw.releaseWrite();
+        }
+
+        private String name;
+    }
+
+    private static class Reader implements Runnable {
+        Reader(String name) {
+            this.name = name;
+        }
+
+        public void run() {
+            rw.acquireRead();
+            order += name + " ";
+            rw.releaseRead();
+        }
+
+        private String name;
+    }
+
+    private static class TableReader implements Runnable {
+        public void run() {
+            while(!done){
+                int seq, a, b;
+                do {
+                    seq = table.readBegin();
+                    a = first;
+                    KThread.currentThread().yield();
+                    b = second;
+                } while(table.readRetry(seq));
+                Lib.assertTrue(a == b);
+            }
+            readersDone++;
+        }
+    }
+
+    //writes the pair, letting a higher priority reader in halfway through
+    private static class SlowWriter implements Runnable {
+        public void run() {
+            table.writeBegin();
+            first = numWrites;
+            boolean intStatus = Machine.interrupt().disable();
+            new KThread(new FastReader(), 1).setName("fr").fork();
+            Machine.interrupt().restore(intStatus);
+            KThread.currentThread().yield();
+            second = numWrites;
+            table.writeEnd();
+        }
+    }
+
+    private static class FastReader implements Runnable {
+        public void run() {
+            int seq, a, b;
+            do {
+                seq = table.readBegin();
+                a = first;
+                b = second;
+            } while(table.readRetry(seq));
+            Lib.assertTrue(a == b && a == numWrites);
+            fastReaderDone = true;
+        }
+    }
+
+    private static final int numReaders = 3;
+    private static final int numWrites = 50;
+    private static ReadWriteLock rw = new ReadWriteLock("rw");
+    private static SeqLock table = new SeqLock("table");
+    private static String order = "";
+    private static int first = 0, second = 0;
+    private static boolean done = false;
+    private static int readersDone = 0;
+    private static boolean fastReaderDone = false;
+}
@@ -0,0 +1,83 @@
+package nachos.threads.test;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+public class SMP1 implements TestScheduler {
+    public void test(){
+        Lib.debug('t', "Enter KThread.selfTest");
+
+        System.out.println("*** processors " + Machine.numProcessors());
+
+        boolean intStatus = Machine.interrupt().disable();
+        int priority =
+            ThreadedKernel.scheduler.getPriority(KThread.currentThread());
+        for(int i=0; i<numWorkers; i++)
+            new KThread(new Worker(), priority).setName("w"+i).fork();
+        Machine.interrupt().restore(intStatus);
+
+        while(workersDone < numWorkers)
+            KThread.currentThread().yield();
+
+        //the workers hold the lock across timer interrupts, so on more than
+        //one processor they have to spin for it
+        System.out.println("*** counter " + counter);
+        Lib.assertTrue(counter == numWorkers*numIterations);
+        System.out.println("*** workers ran on " + numUsed() + " processors");
+        Lib.assertTrue(numUsed() == Machine.numProcessors());
+        if(Machine.numProcessors() > 1)
+            Lib.assertTrue(lock.getNumSpins() > 0);
+        else
+            Lib.assertTrue(lock.getNumSpins() == 0);
+        System.out.println("*** spinlock never held twice");
+
+        //the workers were all readied on processor 0, so the others had to
+        //steal them
+        for(int i=1; i<Machine.numProcessors(); i++)
+            Lib.assertTrue(Metrics.counter("runqueue."+i+".steals").get() > 0);
+        System.out.println("*** idle processors stole work");
+
+        ThreadedKernel.scheduler.printSystemStats();
+    }
+
+    //burn simulated time without giving up the processor
+    private static void work(int ticks){
+        for(int i=0; i<ticks; i++){
+            boolean intStatus = Machine.interrupt().disable();
+            Machine.interrupt().restore(intStatus);
+        }
+    }
+
+    private static int numUsed(){
+        int n = 0;
+        for(int i=0; i<used.length; i++)
+            if(used[i])
+                n++;
+        return n;
+    }
+
+    private static class Worker implements Runnable {
+        public void run() {
+            for(int i=0; i<numIterations; i++){
+                lock.acquire();
+                Lib.assertTrue(holders++ == 0);
+                used[Machine.currentProcessor()] = true;
+                int value = counter;
+                work(20);
+                counter = value + 1;
+                holders--;
+                lock.release();
+                work(5);
+            }
+            workersDone++;
+        }
+    }
+
+    private static final int numWorkers = 4;
+    private static final int numIterations = 40;
+    private static SpinLock lock = new SpinLock("counter");
+    private static boolean[] used = new boolean[Machine.numProcessors()];
+    private static int counter = 0;
+    private static int holders = 0;
+    private static int workersDone = 0;
+}
@@ -0,0 +1,97 @@
+package nachos.threads.test;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+public class ST1 implements TestScheduler {
+    public void test(){
+        Lib.debug('t', "Enter KThread.selfTest");
+
+        //disable interrupts because we need to set priorities of threads
+        boolean intStatus = Machine.interrupt().disable();
+
+        //create threads holding 1, 2, 4 and 8 tickets
+        for(int i=0; i<numThreads; i++){
+            new KThread(new Share(i), StrideScheduler.priorityMaximum + 1 -
+                    (1 << i)).setName("t"+i).fork();
+        }
+
+        //create a holder and a waiter so that priority gets donated through
+        //the lock
+        new KThread(new Holder(), StrideScheduler.priorityMaximum)
+            .setName("holder").fork();
+        new KThread(new Waiter(), StrideScheduler.priorityMinimum)
+            .setName("waiter").fork();
+
+        //restore interrupt state
+        Machine.interrupt().restore(intStatus);
+
+        //yield main thread until every thread has had its share, it
+        //competes with default priority
+        while(finished < numThreads + 2)
+            KThread.currentThread().yield();
+
+        for(int i=0; i<numThreads; i++){
+            System.out.println("*** thread " + i + " with priority " +
+                    (StrideScheduler.priorityMaximum + 1 - (1 << i)) +
+                    " ran " + runs[i] + " of " + totalRuns + " times");
+        }
+
+        ThreadedKernel.scheduler.printSystemStats();
+    }
+
+    //runs until the threads have run maxRuns times between them
+    private static class Share implements Runnable {
+        Share(int which) {
+            this.which = which;
+        }
+
+        public void run() {
+            while(totalRuns < maxRuns){
+                runs[which]++;
+                totalRuns++;
+                KThread.currentThread().yield();
+            }
+            finished++;
+        }
+
+        private int which;
+    }
+
+    //grabs the lock and holds it for a while at the lowest priority
+    private static class Holder implements Runnable {
+        public void run() {
+            lock.acquire();
+            held = true;
+            for(int i=0; i<5; i++){
+                boolean intStatus = Machine.interrupt().disable();
+                System.out.println("*** holder has effective priority " +
+                        ThreadedKernel.scheduler.getEffectivePriority());
+                Machine.interrupt().restore(intStatus);
+                KThread.currentThread().yield();
+            }
+            lock.release();
+            finished++;
+        }
+    }
+
+    //blocks on the lock, donating its priority to the holder
+    private static class Waiter implements Runnable {
+        public void run() {
+            while(!held)
+                KThread.currentThread().yield();
+            lock.acquire();
+            System.out.println("*** waiter got the lock");
+            lock.release();
+            finished++;
+        }
+    }
+
+    private static final int numThreads = 4;
+    private static final int maxRuns = 300;
+    private static int[] runs = new int[numThreads];
+    private static int totalRuns = 0;
+    private static int finished = 0;
+    private static boolean held = false;
+    private static Lock lock = new Lock("stride");
+}
@@ -1,6 +1,7 @@
 package nachos.userprog;
 
 import java.util.LinkedList;
+import java.util.Iterator;
 import nachos.machine.*;
 import nachos.threads.Semaphore;
 
@@ -99,6 +100,50 @@ public class Allocator{
         numProc--;
     }
 
+    int getNumProc(){
+        return numProc;
+    }
+
+    //write the owner of every frame, the order of the free list and the
+    //counters to a checkpoint
+    void save(Checkpoint c){
+        for(int i = 0; i < numPages; i++)
+            c.writeInt(frames[i].pid);
+
+        c.writeInt(freeList.size());
+        for(Iterator i = freeList.iterator(); i.hasNext(); )
+            c.writeInt(((FrameInfo) i.next()).frameNum);
+
+        c.writeInt(numProc);
+        c.writeInt(numMapped);
+        c.writeInt(numReserved);
+        c.writeInt(availableFrames);
+        c.writeInt(maxNumReserved);
+        c.writeInt(maxNumProc);
+        c.writeInt(maxNumMapped);
+        c.writeBoolean(waiting);
+    }
+
+    //read back what save() wrote
+    void restore(Checkpoint c){
+        for(int i = 0; i < numPages; i++)
+            frames[i].pid = c.readInt();
+
+        freeList.clear();
+        int numFree = c.readInt();
+        for(int i = 0; i < numFree; i++)
+            freeList.add(frames[c.readInt()]);
+
+        numProc = c.readInt();
+        numMapped = c.readInt();
+        numReserved = c.readInt();
+        availableFrames = c.readInt();
+        maxNumReserved = c.readInt();
+        maxNumProc = c.readInt();
+        maxNumMapped = c.readInt();
+        waiting = c.readBoolean();
+    }
+
     //get funcs for the statistics
     int getMaxNumProc(){
         return maxNumProc;
@@ -7,6 +7,11 @@ import nachos.userprog.*;
 /**
  * Provides a simple, synchronized interface to the machine's console. The
  * interface can also be accessed through <tt>OpenFile</tt> objects.
+ *
+ * <p>
+ * Input and output go through ring buffers filled and drained by the console
+ * interrupt handlers, so writing a line or reading one costs a single wait
+ * instead of one per byte.
  */
 public class SynchConsole {
     /**
@@ -38,25 +43,78 @@ public class SynchConsole {
      */
     public int readByte(boolean block) {
 	int value;
-	boolean intStatus = Machine.interrupt().disable();	
 	readLock.acquire();
+	boolean intStatus = Machine.interrupt().disable();
 
-	if (block || charAvailable) {
-	    charAvailable = false;
+	while (block && inCount == 0) {
+	    readWaiting = true;
 	    readWait.P();
-
-	    value = console.readByte();
-	    Lib.assertTrue(value != -1);
 	}
-	else {
+
+	if (inCount > 0)
+	    value = takeByte();
+	else
 	    value = -1;
-	}
 
-	readLock.release();
 	Machine.interrupt().restore(intStatus);
+	readLock.release();
 	return value;
     }
 
+    /**
+     * Copy out whatever bytes have already arrived, without blocking.
+     *
+     * @param	buf	the buffer to store the bytes in.
+     * @param	offset	the offset in the buffer to start storing bytes.
+     * @param	length	the maximum number of bytes to read.
+     * @return	the number of bytes read.
+     */
+    public int read(byte[] buf, int offset, int length) {
+	readLock.acquire();
+	boolean intStatus = Machine.interrupt().disable();
+
+	int i;
+	for (i=0; i<length && inCount > 0; i++)
+	    buf[offset+i] = (byte) takeByte();
+
+	Machine.interrupt().restore(intStatus);
+	readLock.release();
+	return i;
+    }
+
+    /**
+     * Read a line. Blocks until a whole line has arrived, or until
+     * <i>length</i> bytes have arrived, and then copies it out with a single
+     * wait rather than one per byte.
+     *
+     * @param	buf	the buffer to store the bytes in.
+     * @param	offset	the offset in the buffer to start storing bytes.
+     * @param	length	the maximum number of bytes to read.
+     * @return	the number of bytes read, including the trailing newline if
+     *		there was room for it.
+     */
+    public int readLine(byte[] buf, int offset, int length) {
+	readLock.acquire();
+	boolean intStatus = Machine.interrupt().disable();
+
+	while (numLines == 0 && inCount < length && inCount < inBuf.length) {
+	    readWaiting = true;
+	    readWait.P();
+	}
+
+	int i = 0;
+	while (i < length && inCount > 0) {
+	    int value = takeByte();
+	    buf[offset+i++] = (byte) value;
+	    if (value == '\n')
+		break;
+	}
+
+	Machine.interrupt().restore(intStatus);
+	readLock.release();
+	return i;
+    }
+
     /**
      * Return an <tt>OpenFile</tt> that can be used to read this as a file.
      *
@@ -66,9 +124,42 @@ public class SynchConsole {
 	return new File(true, false);
     }
 
+    //remove the oldest byte from the input buffer, pulling in a byte the
+    //console is holding for us if there was no room for it before
+    private int takeByte() {
+	int value = inBuf[inHead] & 0xFF;
+	inHead = (inHead+1) % inBuf.length;
+	inCount--;
+	if (value == '\n')
+	    numLines--;
+
+	if (receivePending) {
+	    receivePending = false;
+	    receiveInterrupt();
+	}
+
+	return value;
+    }
+
     private void receiveInterrupt() {
-	charAvailable = true;
-	readWait.V();
+	//leave the byte in the console until there is room for it
+	if (inCount == inBuf.length) {
+	    receivePending = true;
+	    return;
+	}
+
+	int value = console.readByte();
+	Lib.assertTrue(value != -1);
+
+	inBuf[(inHead+inCount) % inBuf.length] = (byte) value;
+	inCount++;
+	if (value == '\n')
+	    numLines++;
+
+	if (readWaiting) {
+	    readWaiting = false;
+	    readWait.V();
+	}
     }
 
     /**
@@ -77,10 +168,44 @@ public class SynchConsole {
      * @param	value	the byte to be sent (the upper 24 bits are ignored).
      */
     public void writeByte(int value) {
+	byte[] buf = { (byte) value };
+	write(buf, 0, 1);
+    }
+
+    /**
+     * Send bytes. They are queued in the output buffer and sent from the
+     * send interrupt handler, so the caller only blocks when the buffer is
+     * full and once at the end, until the last of its bytes has been sent.
+     *
+     * @param	buf	the buffer holding the bytes to send.
+     * @param	offset	the offset in the buffer of the first byte.
+     * @param	length	the number of bytes to send.
+     * @return	the number of bytes sent.
+     */
+    public int write(byte[] buf, int offset, int length) {
 	writeLock.acquire();
-	console.writeByte(value);
-	writeWait.P();
+	boolean intStatus = Machine.interrupt().disable();
+
+	int i = 0;
+	while (i < length) {
+	    for (; i < length && outCount < outBuf.length; i++) {
+		outBuf[(outHead+outCount) % outBuf.length] = buf[offset+i];
+		outCount++;
+	    }
+
+	    if (!sending)
+		sendNext();
+
+	    //wait for half the buffer to drain if there is more to queue,
+	    //otherwise for everything to go out
+	    wakeAt = (i < length) ? outBuf.length/2 : 0;
+	    writeWaiting = true;
+	    writeWait.P();
+	}
+
+	Machine.interrupt().restore(intStatus);
 	writeLock.release();
+	return length;
     }
 
     /**
@@ -92,11 +217,27 @@ public class SynchConsole {
 	return new File(false, true);
     }
 
+    private void sendNext() {
+	console.writeByte(outBuf[outHead]);
+	outHead = (outHead+1) % outBuf.length;
+	outCount--;
+	sending = true;
+    }
+
     private void sendInterrupt() {
-	writeWait.V();
+	sending = false;
+	if (outCount > 0)
+	    sendNext();
+
+	if (writeWaiting && outCount + (sending ? 1 : 0) <= wakeAt) {
+	    writeWaiting = false;
+	    writeWait.V();
+	}
     }
 
-    private boolean charAvailable = false;
+    /** Size of each of the input and output buffers. */
+    private static final int bufferSize =
+	Config.getInteger("SynchConsole.bufferSize", 256);
 
     private SerialConsole console;
     private Lock readLock = new Lock();
@@ -104,6 +245,20 @@ public class SynchConsole {
     private Semaphore readWait = new Semaphore(0);
     private Semaphore writeWait = new Semaphore(0);
 
+    private byte[] inBuf = new byte[bufferSize];
+    private int inHead = 0, inCount = 0;
+    /** Number of newlines in <tt>inBuf</tt>. */
+    private int numLines = 0;
+    private boolean receivePending = false;
+    private boolean readWaiting = false;
+
+    private byte[] outBuf = new byte[bufferSize];
+    private int outHead = 0, outCount = 0;
+    private boolean sending = false;
+    private boolean writeWaiting = false;
+    /** Wake the waiting writer once this many bytes are left to send. */
+    private int wakeAt = 0;
+
     private class File extends OpenFile {
 	File(boolean canRead, boolean canWrite) {
 	    super(null, "SynchConsole");
@@ -120,26 +275,14 @@ public class SynchConsole {
 	    if (!canRead)
 		return 0;
 
-	    int i;
-	    for (i=0; i<length; i++) {
-		int value = SynchConsole.this.readByte(false);
-		if (value == -1)
-		    break;
-		
-		buf[offset+i] = (byte) value;
-	    }
-
-	    return i;
+	    return SynchConsole.this.read(buf, offset, length);
 	}
 
 	public int write(byte[] buf, int offset, int length) {
 	    if (!canWrite)
 		return 0;
 	    
-	    for (int i=0; i<length; i++)
-		SynchConsole.this.writeByte(buf[offset+i]);
-	    
-	    return length;
+	    return SynchConsole.this.write(buf, offset, length);
 	}
 
 	private boolean canRead, canWrite;
@@ -25,6 +25,16 @@ public class UThread extends KThread {
     }
 
     private void runProgram() {
+	if (process.started) {
+	    // restored from a checkpoint in the middle of the program
+	    for (int i=0; i<Processor.numUserRegisters; i++)
+		Machine.processor().writeRegister(i, process.savedRegisters[i]);
+	    process.restoreState();
+
+	    Machine.processor().resume();
+	}
+
+	process.started = true;
 	process.initRegisters();
 	process.restoreState();
 
@@ -26,9 +26,11 @@ public class UserKernel extends ThreadedKernel {
 
 	console = new SynchConsole(Machine.console());
 	
-	Machine.processor().setExceptionHandler(new Runnable() {
+	Runnable handler = new Runnable() {
 		public void run() { exceptionHandler(); }
-	    });
+	    };
+	for (int i=0; i<Machine.numProcessors(); i++)
+	    Machine.processor(i).setExceptionHandler(handler);
     }
 
     /**
@@ -87,28 +89,19 @@ public class UserKernel extends ThreadedKernel {
     boolean intStatus = Machine.interrupt().disable();
     UserKernel.scheduler.setPriority(KThread.currentThread(), 0);
     Machine.interrupt().restore(intStatus);
-	UserProcess process; 
 
-	String shellPrograms = Machine.getShellProgramName();
-
-    int numProgs = Integer.parseInt(shellPrograms.substring(0, shellPrograms.indexOf(':')));
-
-	String[] progs = shellPrograms.substring(shellPrograms.indexOf(':') + 1).split(",");
+    String restoreFile = Config.getString("Kernel.restoreFile");
+    if(restoreFile != null)
+        restore(restoreFile);
+    else
+        launchPrograms();
 
-    for(int i = 0; i < progs.length; i++){
-        for(int j = 0; j < numProgs; j++){
-            process = UserProcess.newUserProcess();
-	        if(process.execute(progs[i], new String[] {}) == false){
-                if(process.getNumPages() <= Machine.processor().getNumPhysPages()){
-                    memWait.add(process);
-                }
-                else{
-                    System.out.println(process.getName() + ",reject," + process.getNumPages());
-                }
-            }
-        }
-    }
+    //the programs are loaded, later runs can start from here
+    String checkpointFile = Config.getString("Kernel.checkpointFile");
+    if(checkpointFile != null)
+        checkpoint(checkpointFile);
 
+    UserProcess process;
     while(!memWait.isEmpty()){
         allocator.waiting = true;
         allocator.waitSem.P();
@@ -133,6 +126,10 @@ public class UserKernel extends ThreadedKernel {
     //completed
     KThread.currentThread().yield();
 
+    //unless other processors are still running them
+    while(allocator.getNumProc() > 0)
+        KThread.yield();
+
     System.out.println();
     System.out.println("Max running processes: " + allocator.getMaxNumProc());
     System.out.println("Max frames reserved:   " + allocator.getMaxNumReserved());
@@ -140,6 +137,105 @@ public class UserKernel extends ThreadedKernel {
     
     }
 
+    //create a process for every shell program, the ones that do not fit in
+    //memory yet wait in memWait
+    private void launchPrograms() {
+	UserProcess process;
+
+	String shellPrograms = Machine.getShellProgramName();
+
+    int numProgs = Integer.parseInt(shellPrograms.substring(0, shellPrograms.indexOf(':')));
+
+	String[] progs = shellPrograms.substring(shellPrograms.indexOf(':') + 1).split(",");
+
+    for(int i = 0; i < progs.length; i++){
+        for(int j = 0; j < numProgs; j++){
+            process = UserProcess.newUserProcess();
+	        if(process.execute(progs[i], new String[] {}) == false){
+                if(process.getNumPages() <= Machine.processor().getNumPhysPages()){
+                    memWait.add(process);
+                    if(EventLog.enabled())
+                        EventLog.write(EventLog.eventWait, process.getPID(),
+                                       EventLog.name(process.getName()),
+                                       process.getNumPages());
+                }
+                else if(EventLog.enabled()){
+                    EventLog.write(EventLog.eventReject, process.getPID(),
+                                   EventLog.name(process.getName()),
+                                   process.getNumPages());
+                }
+                else{
+                    System.out.println(process.getName() + ",reject," + process.getNumPages());
+                }
+            }
+        }
+    }
+    }
+
+    /**
+     * Write the machine, the frame allocator and every process to a
+     * checkpoint file, so that a later run with the same configuration can
+     * continue from here by setting <tt>Kernel.restoreFile</tt>. Processes
+     * that have started must be ready to continue in user mode, and there
+     * must be only one processor, since the kernel state of a thread is on
+     * its host thread's stack.
+     *
+     * @param	fileName	the checkpoint file to write.
+     * @return	<tt>true</tt> if the checkpoint was written.
+     */
+    public boolean checkpoint(String fileName) {
+	String unsavable = UserProcess.findUnsavable();
+	if (unsavable != null || Machine.numProcessors() > 1) {
+	    System.out.println("checkpoint: " +
+			       (unsavable != null ? unsavable + " is in a system call"
+				: "only one processor is supported"));
+	    return false;
+	}
+
+	Checkpoint c = Checkpoint.create(fileName);
+	if (c == null)
+	    return false;
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	c.saveMachine();
+	allocator.save(c);
+	UserProcess.saveAll(c);
+
+	c.writeInt(memWait.size());
+	for (Iterator i=memWait.iterator(); i.hasNext(); )
+	    ((UserProcess) i.next()).save(c);
+
+	c.close();
+
+	Machine.interrupt().restore(intStatus);
+	return true;
+    }
+
+    /**
+     * Continue from a checkpoint written by <tt>checkpoint()</tt>, instead
+     * of loading the shell programs.
+     *
+     * @param	fileName	the checkpoint file to read.
+     */
+    private void restore(String fileName) {
+	Checkpoint c = Checkpoint.open(fileName);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	c.restoreMachine();
+	allocator.restore(c);
+	UserProcess.restoreAll(c);
+
+	int numWaiting = c.readInt();
+	for (int i=0; i<numWaiting; i++)
+	    memWait.add(UserProcess.restore(c));
+
+	c.close();
+
+	Machine.interrupt().restore(intStatus);
+    }
+
     /**
      * Terminate this kernel. Never returns.
      */
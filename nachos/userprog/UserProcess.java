@@ -5,6 +5,8 @@ import nachos.threads.*;
 import nachos.userprog.*;
 
 import java.io.EOFException;
+import java.util.Iterator;
+import java.util.TreeMap;
 
 /**
  * Encapsulates the state of a user process that is not contained in its
@@ -56,14 +58,33 @@ public class UserProcess {
     if(progName == null)
         progName = name;
     	
-	if (!load(progName, args))
+	if (!load(progName, args)) {
+	    //admission wait runs from the first attempt to load
+	    if (admissionStart < 0)
+		admissionStart = Machine.timer().getTime();
 	    return false;
+	}
+
+	if (admissionStart >= 0)
+	    admissionTicks = Machine.timer().getTime() - admissionStart;
+	admissionWait.record(admissionTicks);
     
-	new UThread(this).setName(progName).fork();
+	if (EventLog.enabled())
+	    EventLog.write(EventLog.eventLoad, myPID, EventLog.name(progName),
+			   numPages);
 
+	start();
 	return true;
     }
 
+    //fork the thread that runs this process, now that it is loaded
+    private void start() {
+	processTable.put(new Integer(myPID), this);
+
+	thread = new UThread(this);
+	thread.setName(progName).fork();
+    }
+
     /**
      * Save the state of this process in preparation for a context switch.
      * Called by <tt>UThread.saveState()</tt>.
@@ -291,6 +312,7 @@ public class UserProcess {
 
     //allocate a page for the args
     int temp_ppn = UserKernel.allocator.allocateFrame(myPID);
+    frameMapped();
     pageTable[numPages - 1] = new TranslationEntry(numPages - 1, temp_ppn,
         true, false, false, false);
 
@@ -342,6 +364,7 @@ public class UserProcess {
         
                 //get phys frame allocated
                 int ppn = UserKernel.allocator.allocateFrame(myPID);
+                frameMapped();
                 //update page table entry
                 pageTable[vpn] = new TranslationEntry(vpn, ppn, true, false, false, false);
 
@@ -400,7 +423,14 @@ public class UserProcess {
     }
 
     private int handleExit(int retVal){
-        System.out.println(progName + ",exit," + myPID + "," + retVal);
+        processTable.remove(new Integer(myPID));
+        if (EventLog.enabled())
+            EventLog.write(EventLog.eventExit, myPID,
+                           EventLog.name(progName), retVal);
+        else
+            System.out.println(progName + ",exit," + myPID + "," + retVal);
+        if (accounting)
+            printAccounting();
         unloadSections();
         KThread.currentThread().finish();
         KThread.currentThread().sleep();
@@ -449,6 +479,22 @@ public class UserProcess {
      * @return	the value to be returned to the user.
      */
     public int handleSyscall(int syscall, int a0, int a1, int a2, int a3) {
+	long start = Machine.timer().getTime();
+	if (syscall >= 0 && syscall < syscallCounts.length)
+	    syscallCounts[syscall]++;
+	int result = dispatchSyscall(syscall, a0, a1, a2, a3);
+
+	if (syscall >= 0 && syscall < syscallLatency.length) {
+	    if (syscallLatency[syscall] == null)
+		syscallLatency[syscall] =
+		    Metrics.histogram("syscall." + syscall + ".latency");
+	    syscallLatency[syscall].record(Machine.timer().getTime() - start);
+	}
+
+	return result;
+    }
+
+    private int dispatchSyscall(int syscall, int a0, int a1, int a2, int a3) {
 	switch (syscall) {
 	case syscallHalt:
 	    return handleHalt();
@@ -473,6 +519,10 @@ public class UserProcess {
      */
     public void handleException(int cause) {
 	Processor processor = Machine.processor();
+	inKernel = true;
+
+	if (cause == Processor.exceptionTLBMiss)
+	    numTLBMisses++;
 
 	switch (cause) {
 	case Processor.exceptionSyscall:
@@ -482,6 +532,8 @@ public class UserProcess {
 				       processor.readRegister(Processor.regA2),
 				       processor.readRegister(Processor.regA3)
 				       );
+	    //the syscall may have blocked and resumed on another processor
+	    processor = Machine.processor();
 	    processor.writeRegister(Processor.regV0, result);
 	    processor.advancePC();
 	    break;
@@ -492,10 +544,16 @@ public class UserProcess {
         //calc virtual page number
         int vpn = vaddr / pageSize;
         //System.out.println("page: " + vpn + "addr: " +  vaddr);
+        long start = Machine.timer().getTime();
         //get phys frame allocated for the virtual page
         int ppn = UserKernel.allocator.allocateFrame(myPID);
+        frameMapped();
+        numPageFaults++;
         //update page table entry
         pageTable[vpn] = new TranslationEntry(vpn, ppn, true, false, false, false);
+        faultService.record(Machine.timer().getTime() - start);
+        if (EventLog.enabled())
+            EventLog.write(EventLog.eventFault, myPID, vpn, ppn);
         break;				       
 				       
 	default:
@@ -503,6 +561,129 @@ public class UserProcess {
 		      Processor.exceptionNames[cause]);
 	    Lib.assertNotReached("Unexpected exception");
 	}
+
+	inKernel = false;
+    }
+
+    /**
+     * Test if every loaded process can be saved in a checkpoint. A process
+     * that is in the middle of handling an exception cannot, since its kernel
+     * state is on the stack of its thread.
+     *
+     * @return	the name of a process that cannot be saved, or <tt>null</tt>
+     *		if they all can.
+     */
+    static String findUnsavable() {
+	for (Iterator i=processTable.values().iterator(); i.hasNext(); ) {
+	    UserProcess process = (UserProcess) i.next();
+	    if (process.inKernel)
+		return process.progName;
+	}
+	return null;
+    }
+
+    /**
+     * Write every loaded process to a checkpoint, in the order their threads
+     * will run. Their threads must not be running.
+     */
+    static void saveAll(Checkpoint c) {
+	c.writeInt(globalPID);
+	c.writeInt(processTable.size());
+
+	TreeMap unsaved = new TreeMap(processTable);
+	KThread[] ready = KThread.getReadyThreads();
+	for (int i=0; i<ready.length; i++) {
+	    if (ready[i] instanceof UThread) {
+		UserProcess process = ((UThread) ready[i]).process;
+		if (unsaved.remove(new Integer(process.myPID)) != null)
+		    process.save(c);
+	    }
+	}
+
+	for (Iterator i=unsaved.values().iterator(); i.hasNext(); )
+	    ((UserProcess) i.next()).save(c);
+    }
+
+    /**
+     * Restore the processes written by <tt>saveAll()</tt> and fork their
+     * threads, so they run in the same order as when they were saved.
+     */
+    static void restoreAll(Checkpoint c) {
+	int nextPID = c.readInt();
+	int n = c.readInt();
+	for (int i=0; i<n; i++)
+	    restore(c).start();
+	globalPID = nextPID;
+    }
+
+    /**
+     * Write the state of this process to a checkpoint: its program, page
+     * table, accounting and, if it has started running, its registers.
+     */
+    void save(Checkpoint c) {
+	c.writeInt(myPID);
+	c.writeString(progName);
+	c.writeLong(admissionStart);
+	c.writeLong(admissionTicks);
+
+	c.writeInt(numPages);
+	c.writeInt(initialPC);
+	c.writeInt(initialSP);
+	c.writeInt(argc);
+	c.writeInt(argv);
+	c.writeInt(numPageFaults);
+	c.writeInt(numTLBMisses);
+	c.writeInt(numResident);
+	c.writeInt(peakResident);
+	for (int i=0; i<syscallCounts.length; i++)
+	    c.writeInt(syscallCounts[i]);
+
+	for (int i=0; i<numPages; i++)
+	    c.writeEntry(pageTable[i]);
+
+	c.writeBoolean(started);
+	if (started) {
+	    for (int i=0; i<Processor.numUserRegisters; i++)
+		c.writeInt(thread.userRegisters[i]);
+	}
+    }
+
+    /**
+     * Read a process written by <tt>save()</tt>. Its thread is not forked.
+     *
+     * @return	the restored process.
+     */
+    static UserProcess restore(Checkpoint c) {
+	UserProcess process = newUserProcess();
+
+	process.myPID = c.readInt();
+	process.progName = c.readString();
+	process.admissionStart = c.readLong();
+	process.admissionTicks = c.readLong();
+
+	process.numPages = c.readInt();
+	process.initialPC = c.readInt();
+	process.initialSP = c.readInt();
+	process.argc = c.readInt();
+	process.argv = c.readInt();
+	process.numPageFaults = c.readInt();
+	process.numTLBMisses = c.readInt();
+	process.numResident = c.readInt();
+	process.peakResident = c.readInt();
+	for (int i=0; i<process.syscallCounts.length; i++)
+	    process.syscallCounts[i] = c.readInt();
+
+	for (int i=0; i<process.numPages; i++)
+	    process.pageTable[i] = c.readEntry();
+
+	process.started = c.readBoolean();
+	if (process.started) {
+	    process.savedRegisters = new int[Processor.numUserRegisters];
+	    for (int i=0; i<Processor.numUserRegisters; i++)
+		process.savedRegisters[i] = c.readInt();
+	}
+
+	return process;
     }
 
     public int getNumPages(){
@@ -513,6 +694,47 @@ public class UserProcess {
         return progName;
     }
 
+    public int getPID(){
+        return myPID;
+    }
+
+    //count a frame mapped into this process, for its peak resident set
+    private void frameMapped(){
+        numResident++;
+        if(numResident > peakResident)
+            peakResident = numResident;
+    }
+
+    /**
+     * Print the resources this process used, as one CSV line:
+     * <tt>name,account,pid,instructions,userTicks,kernelTicks,faults,
+     * tlbMisses,peakFrames,admissionWait,syscalls</tt>, where
+     * <tt>syscalls</tt> lists <tt>number:count</tt> pairs separated by
+     * spaces. Instructions are user ticks, since the processor charges
+     * <tt>Stats.UserTick</tt> for each one it executes.
+     */
+    private void printAccounting(){
+        long userTicks = 0, kernelTicks = 0;
+        if(thread != null){
+            userTicks = thread.getUserTicks();
+            kernelTicks = thread.getKernelTicks();
+        }
+
+        String syscalls = "";
+        for(int i=0; i<syscallCounts.length; i++){
+            if(syscallCounts[i] != 0)
+                syscalls += (syscalls.length() == 0 ? "" : " ") + i + ":" +
+                    syscallCounts[i];
+        }
+
+        System.out.println(progName + ",account," + myPID + "," +
+                           userTicks / Stats.UserTick + "," +
+                           userTicks + "," + kernelTicks + "," +
+                           numPageFaults + "," + numTLBMisses + "," +
+                           peakResident + "," + admissionTicks + "," +
+                           syscalls);
+    }
+
     /** The program being run by this process. */
     protected Coff coff;
 
@@ -529,8 +751,37 @@ public class UserProcess {
 
     private int myPID;
     private String progName;
+    /** <tt>true</tt> once the thread of this process has started. */
+    boolean started = false;
+    /** Registers to resume with, for a process restored after starting. */
+    int[] savedRegisters = null;
+    /** <tt>true</tt> while this process is handling an exception. */
+    private boolean inKernel = false;
+    /** When this process first failed to load for lack of frames, or -1. */
+    private long admissionStart = -1;
+
+    //per process accounting, printed at exit if Kernel.processAccounting
+    private UThread thread = null;
+    private long admissionTicks = 0;
+    private int numPageFaults = 0;
+    private int numTLBMisses = 0;
+    private int numResident = 0;
+    private int peakResident = 0;
+    private int[] syscallCounts = new int[16];
+
+    private static final boolean accounting =
+        Config.getBoolean("Kernel.processAccounting", false);
 	
     private static int globalPID = 0;
+    /** The processes that have been loaded and have not exited, by PID. */
+    private static TreeMap processTable = new TreeMap();
+
+    private static Histogram faultService =
+        Metrics.histogram("pageFault.service");
+    private static Histogram admissionWait =
+        Metrics.histogram("process.admissionWait");
+    /** Latency histograms, indexed by syscall number, made on first use. */
+    private static Histogram[] syscallLatency = new Histogram[16];
 
     private static final int pageSize = Processor.pageSize;
     private static final char dbgProcess = 'a';
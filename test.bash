@@ -1,8 +0,0 @@
-#!/bin/bash
-
-java nachos.machine.Machine -[] conf/PA3/Performance_256.conf
-java nachos.machine.Machine -[] conf/PA3/Performance_512.conf
-java nachos.machine.Machine -[] conf/PA3/Performance_1024.conf
-java nachos.machine.Machine -[] conf/PA3/Performance_4096.conf
-java nachos.machine.Machine -[] conf/PA3/Performance_32KB.conf
-java nachos.machine.Machine -[] conf/PA3/Performance_64KB.conf